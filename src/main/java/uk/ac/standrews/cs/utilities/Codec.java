@@ -14,37 +14,37 @@
  * You should have received a copy of the GNU General Public License along with utilities. If not, see
  * <http://www.gnu.org/licenses/>.
  */
-package uk.ac.standrews.cs.utilities.mi_file;
+package uk.ac.standrews.cs.utilities;
+
+import java.nio.charset.StandardCharsets;
 
 /**
+ * Converts objects to and from bytes, so that they can be stored in files.
  *
- * @author Amato
+ * @param <T> the type of the objects
  */
-public class PostingListEntry<T> implements Comparable<PostingListEntry<T>> {
-
-    private final T object;
-    private final int score;
+public interface Codec<T> {
 
-    public PostingListEntry(T o, int s) {
-        object = o;
-        score = s;
-    }
+    byte[] encode(T object);
 
-    public T getObject() {
-        return object;
-    }
+    T decode(byte[] bytes);
 
-    public int getScore() {
-        return score;
-    }
+    /**
+     * @return a codec that stores strings as UTF-8
+     */
+    static Codec<String> strings() {
 
-    public String toString() {
-        return "object: " + object + " score: " + score;
-    }
+        return new Codec<String>() {
 
+            @Override
+            public byte[] encode(String object) {
+                return object.getBytes(StandardCharsets.UTF_8);
+            }
 
-    @Override
-    public int compareTo(PostingListEntry<T> o) {
-        return this.score > o.score ? +1 : this.score < o.score ? -1 : 0;
+            @Override
+            public String decode(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
     }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An array of fixed size elements, ints or longs, read from a mapped section of a file. Since a single mapping cannot
+ * exceed 2GB, the section is mapped in chunks of at most that size, each holding a whole number of units of elements,
+ * so that a unit such as a signature never spans two chunks.
+ */
+public class MappedArray {
+
+    private static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE;
+
+    private final ByteBuffer[] chunks;
+    private final int element_size;
+    private final long elements_per_chunk;
+    private final long length;
+
+    /**
+     * @param channel the file
+     * @param position the position of the section in the file
+     * @param length the number of elements
+     * @param element_size the size of each element in bytes
+     * @param unit the number of elements to be kept in the same chunk
+     */
+    public MappedArray(FileChannel channel, long position, long length, int element_size, int unit) throws IOException {
+
+        this(channel, position, length, element_size, unit, MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * Wraps a buffer as a single chunk.
+     */
+    public MappedArray(ByteBuffer buffer, int element_size) {
+
+        this.chunks = new ByteBuffer[]{buffer};
+        this.element_size = element_size;
+        this.length = buffer.limit() / element_size;
+        this.elements_per_chunk = Math.max(length, 1);
+    }
+
+    MappedArray(FileChannel channel, long position, long length, int element_size, int unit, long max_chunk_size) throws IOException {
+
+        long units_per_chunk = max_chunk_size / ((long) element_size * unit);
+        if (units_per_chunk < 1) {
+            throw new IllegalArgumentException("unit of " + unit + " elements is too large to be mapped");
+        }
+
+        this.element_size = element_size;
+        this.elements_per_chunk = units_per_chunk * unit;
+        this.length = length;
+
+        chunks = new ByteBuffer[(int) ((length + elements_per_chunk - 1) / elements_per_chunk)];
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            long start = chunk * elements_per_chunk;
+            long size = Math.min(elements_per_chunk, length - start) * element_size;
+            chunks[chunk] = ChannelWriter.map(channel, position + start * element_size, size);
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public int getInt(long index) {
+        return chunks[(int) (index / elements_per_chunk)].getInt((int) (index % elements_per_chunk) * element_size);
+    }
+
+    public long getLong(long index) {
+        return chunks[(int) (index / elements_per_chunk)].getLong((int) (index % elements_per_chunk) * element_size);
+    }
+
+    /**
+     * Reads consecutive ints, which must lie within a unit, into the array.
+     */
+    public void getInts(long index, int[] destination) {
+
+        ByteBuffer chunk = chunks[(int) (index / elements_per_chunk)];
+        int offset = (int) (index % elements_per_chunk) * element_size;
+
+        for (int i = 0; i < destination.length; i++) {
+            destination[i] = chunk.getInt(offset + 4 * i);
+        }
+    }
+}
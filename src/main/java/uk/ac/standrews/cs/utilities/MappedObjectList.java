@@ -0,0 +1,142 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A list of objects decoded on demand from a mapped file. Objects added after the file was opened are held on the heap.
+ * <p>
+ * In the file, the encoded objects are followed by size + 1 longs giving the offset of each, as written by write().
+ * The encoded objects are mapped in chunks of at most 2GB, each holding whole objects.
+ */
+public class MappedObjectList<T> extends AbstractList<T> {
+
+    private static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE;
+
+    private final MappedArray offsets;
+    private final ByteBuffer[] chunks;
+    private final int[] chunk_starts;   // the index of the first object in each chunk.
+    private final int mapped_size;
+    private final Codec<T> codec;
+    private final List<T> added = new ArrayList<>();
+
+    public MappedObjectList(FileChannel channel, long data_offset, long index_offset, int size, Codec<T> codec) throws IOException {
+
+        this(channel, data_offset, index_offset, size, codec, MAX_CHUNK_SIZE);
+    }
+
+    MappedObjectList(FileChannel channel, long data_offset, long index_offset, int size, Codec<T> codec, long max_chunk_size) throws IOException {
+
+        this.offsets = new MappedArray(channel, index_offset, size + 1L, 8, 1);
+        this.mapped_size = size;
+        this.codec = codec;
+
+        List<ByteBuffer> chunk_list = new ArrayList<>();
+        int[] starts = new int[0];
+        int first = 0;
+
+        while (first < size) {
+
+            long start = offsets.getLong(first);
+            if (offsets.getLong(first + 1) - start > max_chunk_size) {
+                throw new IOException("object of " + (offsets.getLong(first + 1) - start) + " bytes is too large to be mapped");
+            }
+
+            // the last object boundary within the largest chunk.
+            int low = first + 1;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (offsets.getLong(middle) - start <= max_chunk_size) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+
+            chunk_list.add(ChannelWriter.map(channel, data_offset + start, offsets.getLong(low) - start));
+            starts = Arrays.copyOf(starts, starts.length + 1);
+            starts[starts.length - 1] = first;
+            first = low;
+        }
+
+        chunks = chunk_list.toArray(new ByteBuffer[0]);
+        chunk_starts = starts;
+    }
+
+    /**
+     * Writes the encoded objects followed by the offset of each.
+     *
+     * @return the position of the offsets
+     */
+    public static <T> long write(ChannelWriter writer, List<T> objects, Codec<T> codec) throws IOException {
+
+        long start = writer.position();
+        long[] offsets = new long[objects.size() + 1];
+
+        for (int index = 0; index < objects.size(); index++) {
+            offsets[index] = writer.position() - start;
+            writer.putBytes(codec.encode(objects.get(index)));
+        }
+        offsets[objects.size()] = writer.position() - start;
+
+        long index_offset = writer.position();
+        for (long offset : offsets) {
+            writer.putLong(offset);
+        }
+        return index_offset;
+    }
+
+    @Override
+    public T get(int index) {
+
+        if (index >= mapped_size) {
+            return added.get(index - mapped_size);
+        }
+        if (index < 0) {
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+
+        int search = Arrays.binarySearch(chunk_starts, index);
+        int chunk = search >= 0 ? search : -search - 2;
+        long chunk_start = offsets.getLong(chunk_starts[chunk]);
+
+        long start = offsets.getLong(index);
+        byte[] bytes = new byte[(int) (offsets.getLong(index + 1) - start)];
+        ByteBuffer buffer = chunks[chunk].duplicate();
+        buffer.position((int) (start - chunk_start));
+        buffer.get(bytes);
+        return codec.decode(bytes);
+    }
+
+    @Override
+    public boolean add(T object) {
+        return added.add(object);
+    }
+
+    @Override
+    public int size() {
+        return mapped_size + added.size();
+    }
+}
@@ -16,125 +16,317 @@
  */
 package uk.ac.standrews.cs.utilities.all_pairs;
 
-import uk.ac.standrews.cs.utilities.measures.Cosine;
-import uk.ac.standrews.cs.utilities.measures.implementation.FeatureVector;
-import uk.ac.standrews.cs.utilities.measures.implementation.KeyFreqPair;
-
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
+ * Finds the pairs of documents whose qgram frequency vectors have a cosine similarity at or above a threshold.
+ * Documents are added one at a time, and encoded as sparse vectors over a shared token dictionary; the matches are
+ * found by a single join over all of them when first requested. Matches identify documents by the order in which
+ * they were added. The matches may be kept for lookup, optionally only the k most similar for each document, or
+ * streamed to a sink such as a {@link SimilarityPairWriter} without being kept.
+ * <p>
+ * Kept matches are extended when requested after more documents have been added, by matching only the new documents
+ * against all the others, which takes time linear in the total size of the documents; adding documents one at a time
+ * and requesting matches after each is thus quadratic overall. The k most similar matches of every document may change
+ * when documents are added, so they are found again by a complete join.
  * Created by al on 27/09/2017.
  */
 public class AllPairs {
 
-
     private final double similarity_threshold;
     private int shingle_size = 2;
+    private int parallelism = 1;
+    private int matches_per_document = 0;   // or zero to keep all matches.
 
-//    O = Map from feature to pairs of documents and their similarity_threshold.
-//    MapI I1,I2,...,Im ← ∅ // from feature-index to Set of (doc, feature) pairs
-
-
-
-    private HashMap<String,List<DocumentFeaturePair>> indexMap = new HashMap<>(); // maps from a qgram (a feature) to those docs that have that feature.
-    private HashMap<String,List<SimilarityPair>> all_matches =  new HashMap<>(); // indexed by orginal string.
+    private final TokenDictionary dictionary = new TokenDictionary();
+    private final List<String> documents = new ArrayList<>();
+    private final List<SparseVector> vectors = new ArrayList<>();
+    private HashMap<String,List<SimilarityPair>> all_matches = null; // indexed by orginal string, or null if not yet joined.
+    private int number_matched = 0;   // the number of documents, in order of addition, whose matches are in all_matches.
 
     public AllPairs(double similarity) {
         this.similarity_threshold = similarity;
     }
 
+    /**
+     * Finds all the pairs of documents whose qgram frequency vectors have a cosine similarity at or above the threshold.
+     * @param documents the documents
+     * @param threshold the minimum similarity
+     * @param shingle_size the length of the qgrams
+     * @return the pairs, each once, identifying documents by their positions in the list
+     */
+    public static List<SimilarityPair> join(List<String> documents, double threshold, int shingle_size) {
 
-    public void add( String document ) {
-        FeatureVector x = new FeatureVector(document, shingle_size);
-        // get the documents that have same features
+        return join(documents, threshold, shingle_size, 1);
+    }
 
-        List<SimilarityPair> matches = find_matches(x, document);
-        add_to_all_matches( matches );
+    /**
+     * Finds all the pairs of documents whose qgram frequency vectors have a cosine similarity at or above the threshold,
+     * building the index once and then probing it from several threads.
+     * @param documents the documents
+     * @param threshold the minimum similarity
+     * @param shingle_size the length of the qgrams
+     * @param parallelism the number of threads
+     * @return the pairs, each once and in no particular order, identifying documents by their positions in the list
+     */
+    public static List<SimilarityPair> join(List<String> documents, double threshold, int shingle_size, int parallelism) {
+
+        List<SimilarityPair> result = new ArrayList<>();
+        join(documents, threshold, shingle_size, parallelism, result::add);
+        return result;
+    }
 
-        Iterator<KeyFreqPair> iter = x.getFeatureIterator();
-        while (iter.hasNext()) {               //     for each i s.t. x[i] > 0 do Ii ← Ii ∪ {(x, x[i])}
+    /**
+     * Passes all the pairs of documents whose qgram frequency vectors have a cosine similarity at or above the
+     * threshold to a sink as they are found, without keeping them.
+     * @param documents the documents
+     * @param threshold the minimum similarity
+     * @param shingle_size the length of the qgrams
+     * @param parallelism the number of threads
+     * @param sink the consumer of the pairs, which is never called by more than one thread at a time
+     */
+    public static void join(List<String> documents, double threshold, int shingle_size, int parallelism, Consumer<SimilarityPair> sink) {
+
+        TokenDictionary dictionary = new TokenDictionary();
+        List<SparseVector> vectors = new ArrayList<>(documents.size());
+        for (String document : documents) {
+            vectors.add(dictionary.vectorise(document, shingle_size));
+        }
+        new AllPairsJoin(vectors, threshold).join(parallelism, sink);
+    }
 
-            KeyFreqPair next = iter.next();
+    /**
+     * Passes all the pairs of documents whose qgram frequency vectors have a cosine similarity at or above the
+     * threshold to a sink, for corpora too large for memory. The documents are read once and spilled to temporary
+     * files, and only one block of them is indexed in memory at a time; the pairs found are those of the in-memory join.
+     * The heap still holds the qgram dictionary, a map and a list entry for every distinct qgram, a rank and maximum
+     * weight for every qgram, and 20 bytes for every document.
+     * @param documents the documents, identified by the order in which they are read
+     * @param threshold the minimum similarity
+     * @param shingle_size the length of the qgrams
+     * @param block_size the number of documents in each block
+     * @param directory the directory for the temporary files, which are deleted before returning
+     * @param sink the consumer of the pairs
+     * @throws IOException if the temporary files cannot be written or read
+     */
+    public static void join(Iterator<String> documents, double threshold, int shingle_size, int block_size, Path directory, Consumer<SimilarityPair> sink) throws IOException {
+
+        new BlockAllPairsJoin(threshold, block_size, directory).join(documents, shingle_size, sink);
+    }
 
-            String qgram = next.qgram;
-            int count = next.frequency;
-            List<DocumentFeaturePair> list = indexMap.get(qgram);
-                if( list == null ) {
-                list = new ArrayList<>();
-                list.add(new DocumentFeaturePair(document,x,count));
-                indexMap.put(qgram,list);
-            } else {
-                list.add(new DocumentFeaturePair(document,x,count)); // add_worker to existing.
-            }
+    /**
+     * Finds the k documents whose qgram frequency vectors are most similar to that of each document.
+     * @param documents the documents
+     * @param k the number of matches for each document
+     * @param shingle_size the length of the qgrams
+     * @return the matches of each document, in which the document is always the first of the pair
+     */
+    public static TopKMatches topK(List<String> documents, int k, int shingle_size) {
+
+        return topK(documents, k, shingle_size, 0.0);
+    }
 
+    /**
+     * Finds the k documents whose qgram frequency vectors are most similar to that of each document, among those with
+     * similarity at least a minimum; a document with fewer such matches has fewer than k.
+     * @param documents the documents
+     * @param k the number of matches for each document
+     * @param shingle_size the length of the qgrams
+     * @param min_similarity the minimum similarity
+     * @return the matches of each document, in which the document is always the first of the pair
+     */
+    public static TopKMatches topK(List<String> documents, int k, int shingle_size, double min_similarity) {
+
+        TokenDictionary dictionary = new TokenDictionary();
+        List<SparseVector> vectors = new ArrayList<>(documents.size());
+        for (String document : documents) {
+            vectors.add(dictionary.vectorise(document, shingle_size));
         }
+        return new AllPairsJoin(vectors, min_similarity).topK(k);
+    }
 
+    /**
+     * Finds all the pairs of vectors whose cosine similarity is at or above the threshold.
+     * @param vectors the vectors, with ids from a common dictionary
+     * @param threshold the minimum similarity
+     * @return the pairs, each once, identifying vectors by their positions in the list
+     */
+    public static List<SimilarityPair> join(List<SparseVector> vectors, double threshold) {
+
+        return new AllPairsJoin(vectors, threshold).join();
     }
 
-    private List<SimilarityPair> find_matches(FeatureVector x, String document) {
+    /**
+     * @param parallelism the number of threads used by the join
+     */
+    public void setParallelism( int parallelism ) {
 
-        Cosine cos = new Cosine();
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+    }
 
-        HashMap<String, Double> A = new HashMap<>(); // maps from Document (should be id) to weights - empty map from vector id to weight
+    /**
+     * @param k the number of most similar matches kept for each document by getMatches, or zero to keep all
+     */
+    public void setMatchesPerDocument( int k ) {
 
-        List<SimilarityPair> result = new ArrayList<>(); // M←∅
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative");
+        }
+        matches_per_document = k;
+        all_matches = null;
+    }
+
+    public void add( String document ) {
 
-        Iterator<KeyFreqPair> iter = x.getFeatureIterator();  // for each i s.t. x[i] > 0 do
-        while (iter.hasNext()) {
+        documents.add(document);
+        vectors.add(dictionary.vectorise(document, shingle_size));
+        if( matches_per_document != 0 ) {
+            all_matches = null;
+        }
+    }
 
-            KeyFreqPair i = iter.next(); // all are > 0 by definition
+    /**
+     * @param id the position at which a document was added
+     * @return the document
+     */
+    public String getDocument( int id ) {
+        return documents.get(id);
+    }
 
-            List<DocumentFeaturePair> candidates = indexMap.get(i.qgram);
-            if( candidates != null ) {
-                for (DocumentFeaturePair y : indexMap.get(i.qgram)) { // foreach(y,y[i])∈Ii do  for each document in the indexMap that exists for that feature
+    /**
+     * @param key a document that has been added
+     * @return the pairs including the document whose similarity is at least the threshold, or an empty list if there
+     * are none or the document has not been added
+     */
+    public List<SimilarityPair> getMatches( String key ) {
 
-                    double similarity = cos.distance(x, y.feature_vector); // calculate cosing similarity between x and y
+        if( all_matches == null ) {
+            all_matches = new HashMap<>();
 
-                    A.put(y.document, similarity);   // Add
+            if( matches_per_document == 0 ) {
+                join( this::add_to_all_matches );
 
+            } else {
+                TopKMatches top_matches = new AllPairsJoin(vectors, similarity_threshold).topK(matches_per_document);
+                for( int id = 0; id < documents.size(); id++ ) {
+                    all_matches.computeIfAbsent( documents.get(id), document -> new ArrayList<>() ).addAll( top_matches.get(id) );
                 }
             }
+            number_matched = documents.size();
+
+        } else if( number_matched < documents.size() ) {
+            matchAdded();
         }
-        for( String fv : A.keySet() ) {
-            double similarity = A.get( fv );
-            if( similarity > similarity_threshold ) {
-                result.add( new SimilarityPair(document,fv,similarity ) );
-            }
-        }
-        return result;
+
+        List<SimilarityPair> matches = all_matches.get( key );
+        return matches == null ? Collections.emptyList() : matches;
     }
 
-    private void add_to_all_matches(List<SimilarityPair> matches) {
-        for( SimilarityPair match : matches ) {
+    /**
+     * Passes the pairs of added documents whose similarity is at least the threshold to a sink as they are found,
+     * without keeping them.
+     * @param sink the consumer of the pairs, which is never called by more than one thread at a time
+     */
+    public void join( Consumer<SimilarityPair> sink ) {
 
-            List<SimilarityPair> a_in_all_matches = all_matches.get( match.a );
-            if( a_in_all_matches == null) {
-                a_in_all_matches = new ArrayList<>();
-                a_in_all_matches.add(match);
-                all_matches.put( match.a, a_in_all_matches );
-            } else {
-                a_in_all_matches.add(match);
-            }
+        new AllPairsJoin(vectors, similarity_threshold).join(parallelism, sink);
+    }
 
-            List<SimilarityPair> b_in_all_matches = all_matches.get( match.b );
-            if( b_in_all_matches == null) {
-                b_in_all_matches = new ArrayList<>();
-                b_in_all_matches.add(match);
-                all_matches.put( match.b, b_in_all_matches );
-            } else {
-                b_in_all_matches.add(match);
+    /**
+     * Adds the matches of the documents added since the last join, by indexing only those documents and probing the
+     * index with every document. Each pair is found once, from the later of its two documents.
+     */
+    private void matchAdded() {
+
+        int first_added = number_matched;
+        int number_added = documents.size() - first_added;
+
+        int[][] posting_documents = new int[dictionary.size()][];   // for each feature, the added documents with it.
+        float[][] posting_weights = new float[dictionary.size()][];
+        int[] posting_sizes = new int[dictionary.size()];
+
+        for( int x = first_added; x < documents.size(); x++ ) {
+            SparseVector vector = vectors.get(x);
+            for( int i = 0; i < vector.size(); i++ ) {
+                int feature = vector.ids[i];
+                if( posting_documents[feature] == null ) {
+                    posting_documents[feature] = new int[4];
+                    posting_weights[feature] = new float[4];
+                } else if( posting_sizes[feature] == posting_documents[feature].length ) {
+                    posting_documents[feature] = Arrays.copyOf(posting_documents[feature], posting_sizes[feature] * 2);
+                    posting_weights[feature] = Arrays.copyOf(posting_weights[feature], posting_sizes[feature] * 2);
+                }
+                posting_documents[feature][posting_sizes[feature]] = x;
+                posting_weights[feature][posting_sizes[feature]++] = vector.weights[i];
             }
         }
 
-    }
+        double threshold = similarity_threshold - AllPairsJoin.ROUNDING_TOLERANCE;
+        double[] scores = new double[number_added];
+        int[] candidates = new int[number_added];
 
-    public List<SimilarityPair> getMatches( String key ) {
+        for( int y = 0; y < documents.size() - 1; y++ ) {
 
-        return all_matches.get( key );
+            SparseVector y_vector = vectors.get(y);
+            if( y_vector.norm == 0.0 ) {
+                continue;
+            }
+            int number_of_candidates = 0;
+
+            for( int i = 0; i < y_vector.size(); i++ ) {
+                int feature = y_vector.ids[i];
+                for( int posting = 0; posting < posting_sizes[feature]; posting++ ) {
+                    int x = posting_documents[feature][posting];
+                    if( x > y ) {
+                        if( scores[x - first_added] == 0.0 ) {
+                            candidates[number_of_candidates++] = x;
+                        }
+                        scores[x - first_added] += (double) y_vector.weights[i] * posting_weights[feature][posting];
+                    }
+                }
+            }
+
+            for( int candidate = 0; candidate < number_of_candidates; candidate++ ) {
+                int x = candidates[candidate];
+                double similarity = scores[x - first_added] / (vectors.get(x).norm * y_vector.norm);
+                scores[x - first_added] = 0.0;
+                if( similarity >= threshold ) {
+                    add_to_all_matches( new SimilarityPair(x, y, Math.min(similarity, 1.0)) );
+                }
+            }
+        }
+        number_matched = documents.size();
     }
 
+    private void add_to_all_matches(SimilarityPair match) {
+
+        List<SimilarityPair> a_in_all_matches = all_matches.get( documents.get(match.a) );
+        if( a_in_all_matches == null) {
+            a_in_all_matches = new ArrayList<>();
+            a_in_all_matches.add(match);
+            all_matches.put( documents.get(match.a), a_in_all_matches );
+        } else {
+            a_in_all_matches.add(match);
+        }
 
+        List<SimilarityPair> b_in_all_matches = all_matches.get( documents.get(match.b) );
+        if( b_in_all_matches == null) {
+            b_in_all_matches = new ArrayList<>();
+            b_in_all_matches.add(match);
+            all_matches.put( documents.get(match.b), b_in_all_matches );
+        } else {
+            b_in_all_matches.add(match);
+        }
+    }
 }
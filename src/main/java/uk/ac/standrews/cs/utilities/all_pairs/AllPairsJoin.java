@@ -0,0 +1,509 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.all_pairs;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Finds all the pairs of vectors that have a cosine similarity at or above a threshold, using ALL-PAIRS-2 from
+ * Bayardo, Ma and Srikant, Scaling Up All Pairs Similarity Search, WWW 2007 (see notesfrompaper.txt).
+ * <p>
+ * The features are renumbered globally with the most frequent first, and the vectors processed in decreasing order of
+ * their maximum normalised weight; each is matched against the index of those already processed, and then the suffix
+ * of its features needed to guarantee that it is found by any later match is indexed; the unindexed prefix is kept for
+ * verification. Matching accumulates the products of the weights of shared indexed features, visiting the rarest
+ * features first, admits no new candidates once the remaining features cannot reach the threshold, and skips vectors
+ * too short to reach it. Only the candidates whose bounds can still reach the threshold are verified, by a merge join
+ * with their unindexed prefixes; besides the bound of ALL-PAIRS-2, the length of the prefix bounds its contribution.
+ * <p>
+ * Products are accumulated from the unnormalised weights and divided by the norms once per candidate, so integer
+ * frequencies give exact dot products.
+ * <p>
+ * Since the indexed suffixes depend only on global maximum weights, the whole index is built first, and each vector
+ * then probes only the postings of the vectors before it in the processing order. The probes are independent, so they
+ * may be run by several threads, each with its own score accumulator and match buffer. Each buffer holds the matches
+ * of one block of vectors, and is passed to the sink, one thread at a time, when the block is finished.
+ * <p>
+ * The top-k join finds the k most similar vectors to each vector without a fixed threshold. It runs threshold joins
+ * in rounds with a falling threshold, whose distance below one doubles each round, offering each match found to the
+ * heaps of both its vectors. A heap that is full after a round holds every match at or above the round's threshold,
+ * so it is exact: later rounds skip the pairs of two exact vectors, and stop once every heap is exact. Within a round,
+ * a full heap raises the threshold of its vector to the similarity of its least similar match, and a candidate is
+ * verified only against the lower of the thresholds of its two vectors.
+ */
+class AllPairsJoin {
+
+    // Allows for rounding in the normalised bounds, so that pairs exactly at the threshold are not lost.
+    static final double ROUNDING_TOLERANCE = 1e-9;
+
+    // The number of consecutive vectors in the processing order probed by a thread at a time.
+    private static final int BLOCK_SIZE = 256;
+
+    // The distance below a similarity of one of the threshold of the first round of a top-k join.
+    private static final double FIRST_ROUND_DISTANCE = 0.1;
+
+    private double threshold;
+    private TopKMatches top_matches = null;    // the heaps of the top-k join, or null for a threshold join.
+    private boolean[] exact;                   // for the top-k join, whether each heap was complete before the round.
+
+    private final SparseVector[] vectors;      // with features renumbered by decreasing document frequency.
+    private int number_of_features;
+    private double[] max_weight_of_feature;    // normalised.
+    private double[] max_weight_of_document;   // normalised.
+
+    private int[] order;                       // the vectors in processing order.
+    private int[] positions;                   // the position of each vector in the processing order.
+
+    private int[] prefix_lengths;              // the number of unindexed features of each vector processed.
+    private double[] prefix_max_weights;       // the maximum normalised weight of those features.
+    private double[] prefix_norms;             // the normalised length of those features.
+
+    private int[][] posting_documents;         // for each feature, the vectors indexed for it, in processing order.
+    private float[][] posting_weights;         // the corresponding unnormalised weights.
+    private int[] posting_sizes;
+
+    AllPairsJoin(List<SparseVector> vectors, double threshold) {
+
+        this.threshold = threshold - ROUNDING_TOLERANCE;
+        this.vectors = renumberFeatures(vectors);
+
+        computeMaxWeights();
+    }
+
+    /**
+     * @return the pairs of vectors whose similarity is at least the threshold
+     */
+    List<SimilarityPair> join() {
+
+        return join(1);
+    }
+
+    /**
+     * @param parallelism the number of threads with which to probe the index
+     * @return the pairs of vectors whose similarity is at least the threshold
+     */
+    List<SimilarityPair> join(int parallelism) {
+
+        List<SimilarityPair> result = new ArrayList<>();
+        join(parallelism, result::add);
+        return result;
+    }
+
+    /**
+     * Passes the pairs of vectors whose similarity is at least the threshold to a sink as they are found.
+     * The sink is never called by more than one thread at a time.
+     * @param parallelism the number of threads with which to probe the index
+     * @param sink the consumer of the pairs
+     */
+    void join(int parallelism, Consumer<SimilarityPair> sink) {
+
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+
+        buildIndex();
+
+        AtomicInteger next_block = new AtomicInteger();
+        if (parallelism == 1) {
+            probeBlocks(next_block, sink);
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < parallelism; i++) {
+                futures.add(executor.submit(() -> probeBlocks(next_block, sink)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Finds the k most similar vectors to each vector, considering only similarities of at least the threshold given
+     * on construction; a vector with fewer such matches has fewer than k.
+     * @param k the number of matches for each vector
+     * @return the matches of each vector, in which the vector is always the first of the pair
+     */
+    TopKMatches topK(int k) {
+
+        int number_of_documents = vectors.length;
+        double min_threshold = threshold;
+
+        top_matches = new TopKMatches(number_of_documents, k);
+        exact = new boolean[number_of_documents];
+
+        for (double distance = FIRST_ROUND_DISTANCE; ; distance *= 2) {
+
+            threshold = Math.max(1.0 - distance - ROUNDING_TOLERANCE, min_threshold);
+
+            join(1, pair -> {
+                offer(pair.a, pair.b, pair.similarity);
+                offer(pair.b, pair.a, pair.similarity);
+            });
+
+            boolean all_exact = true;
+            for (int document = 0; document < number_of_documents; document++) {
+                exact[document] = vectors[document].size() == 0 || top_matches.isFull(document);
+                all_exact &= exact[document];
+            }
+
+            if (all_exact || threshold <= min_threshold) {
+                return top_matches;
+            }
+        }
+    }
+
+    //-------------------------------------------------------------
+
+    private SparseVector[] renumberFeatures(List<SparseVector> vectors) {
+
+        number_of_features = 0;
+        for (SparseVector vector : vectors) {
+            if (vector.size() > 0) {
+                number_of_features = Math.max(number_of_features, vector.ids[vector.size() - 1] + 1);
+            }
+        }
+
+        int[] document_frequencies = new int[number_of_features];
+        for (SparseVector vector : vectors) {
+            for (int id : vector.ids) {
+                document_frequencies[id]++;
+            }
+        }
+
+        int[] ranks = ranks(document_frequencies);
+
+        SparseVector[] renumbered = new SparseVector[vectors.size()];
+        for (int document = 0; document < renumbered.length; document++) {
+            renumbered[document] = vectors.get(document).remap(ranks);
+        }
+        return renumbered;
+    }
+
+    /**
+     * @param document_frequencies the number of vectors containing each feature id
+     * @return the rank of each feature id by decreasing frequency, then increasing id
+     */
+    static int[] ranks(int[] document_frequencies) {
+
+        int number_of_features = document_frequencies.length;
+
+        // sort by decreasing frequency then id, packing the frequency into the high half.
+        long[] order = new long[number_of_features];
+        for (int id = 0; id < number_of_features; id++) {
+            order[id] = ((long) (Integer.MAX_VALUE - document_frequencies[id]) << 32) | id;
+        }
+        Arrays.sort(order);
+
+        int[] ranks = new int[number_of_features];
+        for (int rank = 0; rank < number_of_features; rank++) {
+            ranks[(int) order[rank]] = rank;
+        }
+        return ranks;
+    }
+
+    /**
+     * @param max_weight_of_document the maximum normalised weight of each vector
+     * @return the vectors in decreasing order of maximum weight, then increasing id
+     */
+    static int[] processingOrder(double[] max_weight_of_document) {
+
+        int number_of_documents = max_weight_of_document.length;
+
+        // the bits of non-negative doubles are ordered as the doubles, so the distinct weights can be ranked.
+        long[] distinct_weights = new long[number_of_documents];
+        for (int document = 0; document < number_of_documents; document++) {
+            distinct_weights[document] = Double.doubleToLongBits(max_weight_of_document[document]);
+        }
+        Arrays.sort(distinct_weights);
+
+        int number_of_distinct = 0;
+        for (int i = 0; i < number_of_documents; i++) {
+            if (i == 0 || distinct_weights[i] != distinct_weights[i - 1]) {
+                distinct_weights[number_of_distinct++] = distinct_weights[i];
+            }
+        }
+
+        // sort by decreasing weight rank then id, packing the rank into the high half.
+        long[] keys = new long[number_of_documents];
+        for (int document = 0; document < number_of_documents; document++) {
+            int rank = Arrays.binarySearch(distinct_weights, 0, number_of_distinct, Double.doubleToLongBits(max_weight_of_document[document]));
+            keys[document] = ((long) (number_of_distinct - rank) << 32) | document;
+        }
+        Arrays.sort(keys);
+
+        int[] order = new int[number_of_documents];
+        for (int position = 0; position < number_of_documents; position++) {
+            order[position] = (int) keys[position];
+        }
+        return order;
+    }
+
+    private void computeMaxWeights() {
+
+        max_weight_of_feature = new double[number_of_features];
+        max_weight_of_document = new double[vectors.length];
+
+        for (int document = 0; document < vectors.length; document++) {
+
+            SparseVector vector = vectors[document];
+            for (int i = 0; i < vector.size(); i++) {
+                double weight = vector.weights[i] / vector.norm;
+                max_weight_of_feature[vector.ids[i]] = Math.max(max_weight_of_feature[vector.ids[i]], weight);
+                max_weight_of_document[document] = Math.max(max_weight_of_document[document], weight);
+            }
+        }
+    }
+
+    private void buildIndex() {
+
+        int number_of_documents = vectors.length;
+
+        order = processingOrder(max_weight_of_document);
+        positions = new int[number_of_documents];
+        for (int position = 0; position < number_of_documents; position++) {
+            positions[order[position]] = position;
+        }
+
+        prefix_lengths = new int[number_of_documents];
+        prefix_max_weights = new double[number_of_documents];
+        prefix_norms = new double[number_of_documents];
+
+        posting_documents = new int[number_of_features][];
+        posting_weights = new float[number_of_features][];
+        posting_sizes = new int[number_of_features];
+
+        for (int x : order) {
+            index(x);
+        }
+    }
+
+    /**
+     * Probes the index with blocks of vectors in processing order until none remain, passing the matches of each
+     * block to the sink.
+     */
+    private void probeBlocks(AtomicInteger next_block, Consumer<SimilarityPair> sink) {
+
+        int number_of_documents = vectors.length;
+
+        double[] scores = new double[number_of_documents];   // the accumulated dot products, zero for vectors not yet candidates.
+        int[] candidates = new int[number_of_documents];
+        int[] last_matched = new int[number_of_documents];    // the least position in x of a feature matched in each candidate.
+        List<SimilarityPair> matches = new ArrayList<>();
+
+        long start;
+        while ((start = (long) next_block.getAndIncrement() * BLOCK_SIZE) < number_of_documents) {
+
+            int end = (int) Math.min(start + BLOCK_SIZE, number_of_documents);
+            for (int position = (int) start; position < end; position++) {
+                findMatches(order[position], scores, candidates, last_matched, matches::add);
+            }
+
+            synchronized (sink) {
+                matches.forEach(sink);
+            }
+            matches.clear();
+        }
+    }
+
+    private void findMatches(int x, double[] scores, int[] candidates, int[] last_matched, Consumer<SimilarityPair> result) {
+
+        SparseVector x_vector = vectors[x];
+        int[] x_features = x_vector.ids;
+        float[] x_weights = x_vector.weights;
+        if (x_features.length == 0 || x_vector.norm == 0.0) {
+            return;
+        }
+
+        boolean x_exact = top_matches != null && exact[x];
+
+        double remaining_score = 0.0;
+        double[] sums_of_squares = new double[x_features.length + 1];   // of the unnormalised weights before each position.
+
+        for (int i = 0; i < x_features.length; i++) {
+            remaining_score += x_weights[i] / x_vector.norm * max_weight_of_feature[x_features[i]];
+            sums_of_squares[i + 1] = sums_of_squares[i] + (double) x_weights[i] * x_weights[i];
+        }
+
+        // a unit vector y with |y| features has x.y <= maxweight(x) * sqrt(|y|).
+        double min_size = Math.pow(threshold / max_weight_of_document[x], 2);
+        int x_position = positions[x];
+        int number_of_candidates = 0;
+
+        for (int i = x_features.length - 1; i >= 0; i--) {   // rarest first.
+
+            int feature = x_features[i];
+            int[] documents_with_feature = posting_documents[feature];
+
+            for (int posting = 0; posting < posting_sizes[feature]; posting++) {
+
+                int y = documents_with_feature[posting];
+                if (positions[y] >= x_position) {
+                    break;   // only vectors before x were in the index when it was processed.
+                }
+                if (vectors[y].size() >= min_size && (scores[y] != 0.0 || remaining_score >= threshold) && !(x_exact && exact[y])) {
+                    if (scores[y] == 0.0) {
+                        candidates[number_of_candidates++] = y;
+                    }
+                    scores[y] += (double) x_weights[i] * posting_weights[feature][posting];
+                    last_matched[y] = i;
+                }
+            }
+            remaining_score -= x_weights[i] / x_vector.norm * max_weight_of_feature[feature];
+        }
+
+        for (int candidate = 0; candidate < number_of_candidates; candidate++) {
+
+            int y = candidates[candidate];
+            double norms = x_vector.norm * vectors[y].norm;
+            double score = scores[y];
+            scores[y] = 0.0;
+
+            double pair_threshold = top_matches == null ? threshold : Math.min(effectiveThreshold(x), effectiveThreshold(y));
+
+            // the prefix of y precedes its indexed features, so only the features of x before the last one matched can
+            // meet it, and by Cauchy-Schwarz their dot product is at most the product of the lengths of the two.
+            double x_overlap_norm = Math.sqrt(sums_of_squares[last_matched[y]]) / x_vector.norm;
+
+            double prefix_bound = Math.min(Math.min(prefix_lengths[y], x_features.length) * max_weight_of_document[x] * prefix_max_weights[y], x_overlap_norm * prefix_norms[y]);
+            double bound = score / norms + prefix_bound;
+            if (bound >= pair_threshold) {
+                double similarity = (score + prefixDotProduct(x, y)) / norms;
+                if (similarity >= pair_threshold) {
+                    result.accept(new SimilarityPair(x, y, Math.min(similarity, 1.0)));
+                }
+            }
+        }
+    }
+
+    private void offer(int document, int other, double similarity) {
+
+        if (!top_matches.contains(document, other)) {
+            top_matches.offer(document, new SimilarityPair(document, other, similarity));
+        }
+    }
+
+    /**
+     * @return the threshold, raised for the top-k join to the similarity of the least similar match of x once x has k,
+     * since a pair is only needed if it can join the heap of one of its vectors
+     */
+    private double effectiveThreshold(int x) {
+
+        if (top_matches != null && top_matches.isFull(x)) {
+            return Math.max(threshold, top_matches.minimum(x) - ROUNDING_TOLERANCE);
+        }
+        return threshold;
+    }
+
+    /**
+     * @return the unnormalised dot product of x with the unindexed prefix of y, by a merge join of their sorted features
+     */
+    private double prefixDotProduct(int x, int y) {
+
+        int[] x_features = vectors[x].ids;
+        int[] y_features = vectors[y].ids;
+        float[] x_weights = vectors[x].weights;
+        float[] y_weights = vectors[y].weights;
+        int y_end = prefix_lengths[y];
+
+        double dot_product = 0.0;
+        int i = 0;
+        int j = 0;
+
+        while (i < x_features.length && j < y_end) {
+            if (x_features[i] < y_features[j]) {
+                i++;
+            } else if (x_features[i] > y_features[j]) {
+                j++;
+            } else {
+                dot_product += (double) x_weights[i++] * y_weights[j++];
+            }
+        }
+        return dot_product;
+    }
+
+    /**
+     * Indexes the features of x from the point at which the bound on the similarity of any later vector to the
+     * features before it reaches the threshold.
+     */
+    private void index(int x) {
+
+        SparseVector x_vector = vectors[x];
+        int[] x_features = x_vector.ids;
+        float[] x_weights = x_vector.weights;
+
+        double bound = 0.0;
+        int prefix_length = x_features.length;
+        double prefix_max_weight = 0.0;
+        double prefix_sum_of_squares = 0.0;
+
+        for (int i = 0; i < x_features.length; i++) {
+
+            int feature = x_features[i];
+            double weight = x_weights[i] / x_vector.norm;
+            bound += Math.min(max_weight_of_feature[feature], max_weight_of_document[x]) * weight;
+
+            if (bound >= threshold) {
+                if (prefix_length == x_features.length) {
+                    prefix_length = i;
+                }
+                addPosting(feature, x, x_weights[i]);
+
+            } else {
+                prefix_max_weight = Math.max(prefix_max_weight, weight);
+                prefix_sum_of_squares += weight * weight;
+            }
+        }
+
+        prefix_lengths[x] = prefix_length;
+        prefix_max_weights[x] = prefix_max_weight;
+        prefix_norms[x] = Math.sqrt(prefix_sum_of_squares);
+    }
+
+    private void addPosting(int feature, int document, float weight) {
+
+        int size = posting_sizes[feature];
+
+        if (posting_documents[feature] == null) {
+            posting_documents[feature] = new int[4];
+            posting_weights[feature] = new float[4];
+
+        } else if (size == posting_documents[feature].length) {
+            posting_documents[feature] = Arrays.copyOf(posting_documents[feature], size * 2);
+            posting_weights[feature] = Arrays.copyOf(posting_weights[feature], size * 2);
+        }
+
+        posting_documents[feature][size] = document;
+        posting_weights[feature][size] = weight;
+        posting_sizes[feature]++;
+    }
+}
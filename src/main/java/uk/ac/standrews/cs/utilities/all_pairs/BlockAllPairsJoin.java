@@ -0,0 +1,569 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.all_pairs;
+
+import uk.ac.standrews.cs.utilities.ChannelWriter;
+import uk.ac.standrews.cs.utilities.Codec;
+import uk.ac.standrews.cs.utilities.MappedObjectList;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Finds the same pairs as {@link AllPairsJoin}, with the same similarities, for corpora too large for memory, by a
+ * block nested loop join.
+ * <p>
+ * The documents are read once and their vectors written to a file. The documents are then divided into blocks in the
+ * processing order of AllPairsJoin, and for each block a file is written holding its vectors, their unindexed prefixes
+ * and the postings of their indexed features. The file of each block is mapped in turn, and the vectors of that block
+ * and every later one are streamed against its index. Since later blocks follow it in processing order the bounds of
+ * ALL-PAIRS-2 hold, and within the block each vector probes only those before it.
+ * <p>
+ * The memory used is not independent of the corpus. Throughout the join the heap holds the token dictionary, a
+ * {@code HashMap<String, Integer>} and a {@code List<String>} with an entry for every distinct qgram, and for each
+ * feature an int rank and a double maximum weight. For each document it holds a long offset into the vector file, a
+ * double maximum weight and an int position in the processing order, 20 bytes in all. Writing a block also holds the
+ * vectors and postings of that block. The postings of a block are found through the ids of only the features indexed
+ * in it, sorted and searched by bisection, so that the block files together grow with the postings rather than with
+ * the number of blocks times the number of features.
+ */
+class BlockAllPairsJoin {
+
+    private static final int HEADER_SIZE = 4 + 4 + 3 * 8 + 4;
+
+    private final double threshold;
+    private final int block_size;
+    private final Path directory;
+    private final Codec<SparseVector> codec = SparseVector.codec();
+
+    private int number_of_documents;
+    private long[] vector_offsets;             // the position of each vector in the vector file, and of its end.
+    private int[] ranks;                       // the rank of each feature id by decreasing document frequency.
+    private double[] max_weight_of_feature;    // normalised, by rank.
+    private double[] max_weight_of_document;   // normalised.
+    private int[] order;                       // the documents in processing order.
+
+    /**
+     * @param threshold the minimum similarity
+     * @param block_size the number of documents in each block
+     * @param directory the directory in which to create the temporary files
+     */
+    BlockAllPairsJoin(double threshold, int block_size, Path directory) {
+
+        if (block_size < 1) {
+            throw new IllegalArgumentException("block size must be positive");
+        }
+
+        this.threshold = threshold - AllPairsJoin.ROUNDING_TOLERANCE;
+        this.block_size = block_size;
+        this.directory = directory;
+    }
+
+    /**
+     * Passes the pairs of documents whose similarity is at least the threshold to a sink as they are found, identifying
+     * the documents by the order in which they are read. The temporary files are deleted before returning.
+     */
+    void join(Iterator<String> documents, int shingle_size, Consumer<SimilarityPair> sink) throws IOException {
+
+        List<Path> block_paths = new ArrayList<>();
+
+        try {
+            Path vector_path = Files.createTempFile(directory, "all_pairs", ".vectors");
+            try {
+                try (FileChannel channel = FileChannel.open(vector_path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+                    writeVectors(documents, shingle_size, channel);
+                    computeMaxWeights(channel);
+                    order = AllPairsJoin.processingOrder(max_weight_of_document);
+
+                    for (int start = 0; start < number_of_documents; start += block_size) {
+
+                        Path block_path = Files.createTempFile(directory, "all_pairs", ".block");
+                        block_paths.add(block_path);
+                        writeBlock(channel, start, Math.min(start + block_size, number_of_documents), block_path);
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(vector_path);
+            }
+
+            for (int i = 0; i < block_paths.size(); i++) {
+
+                Block index_block = new Block(block_paths.get(i));
+                probeWithin(index_block, sink);
+
+                for (int j = i + 1; j < block_paths.size(); j++) {
+                    probe(index_block, block_paths.get(j), sink);
+                }
+            }
+
+        } finally {
+            for (Path block_path : block_paths) {
+                Files.deleteIfExists(block_path);
+            }
+        }
+    }
+
+    //-------------------------------------------------------------
+
+    private void writeVectors(Iterator<String> documents, int shingle_size, FileChannel channel) throws IOException {
+
+        ChannelWriter writer = new ChannelWriter(channel, 0);
+        TokenDictionary dictionary = new TokenDictionary();
+        int[] document_frequencies = new int[1024];
+
+        vector_offsets = new long[1024];
+        number_of_documents = 0;
+
+        while (documents.hasNext()) {
+
+            SparseVector vector = dictionary.vectorise(documents.next(), shingle_size);
+
+            if (number_of_documents + 1 == vector_offsets.length) {
+                vector_offsets = Arrays.copyOf(vector_offsets, vector_offsets.length * 2);
+            }
+            vector_offsets[number_of_documents++] = writer.position();
+            writer.putBytes(codec.encode(vector));
+
+            for (int id : vector.ids) {
+                if (id >= document_frequencies.length) {
+                    document_frequencies = Arrays.copyOf(document_frequencies, Math.max(id + 1, document_frequencies.length * 2));
+                }
+                document_frequencies[id]++;
+            }
+        }
+
+        vector_offsets[number_of_documents] = writer.position();
+        writer.flush();
+
+        ranks = AllPairsJoin.ranks(Arrays.copyOf(document_frequencies, dictionary.size()));
+    }
+
+    private void computeMaxWeights(FileChannel channel) throws IOException {
+
+        max_weight_of_feature = new double[ranks.length];
+        max_weight_of_document = new double[number_of_documents];
+
+        channel.position(0);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+
+        for (int document = 0; document < number_of_documents; document++) {
+
+            byte[] bytes = new byte[(int) (vector_offsets[document + 1] - vector_offsets[document])];
+            input.readFully(bytes);
+            SparseVector vector = codec.decode(bytes).remap(ranks);
+
+            for (int i = 0; i < vector.size(); i++) {
+                double weight = vector.weights[i] / vector.norm;
+                max_weight_of_feature[vector.ids[i]] = Math.max(max_weight_of_feature[vector.ids[i]], weight);
+                max_weight_of_document[document] = Math.max(max_weight_of_document[document], weight);
+            }
+        }
+    }
+
+    private SparseVector readVector(FileChannel channel, int document) throws IOException {
+
+        long position = vector_offsets[document];
+        ByteBuffer buffer = ByteBuffer.allocate((int) (vector_offsets[document + 1] - position));
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return codec.decode(buffer.array()).remap(ranks);
+    }
+
+    /**
+     * Writes the vectors at the given positions in processing order, with the unindexed prefix of each and the
+     * postings of their indexed features, as in AllPairsJoin.
+     */
+    private void writeBlock(FileChannel vector_channel, int start, int end, Path path) throws IOException {
+
+        int size = end - start;
+
+        int[] documents = new int[size];
+        SparseVector[] vectors = new SparseVector[size];
+        int[] prefix_lengths = new int[size];
+        double[] prefix_max_weights = new double[size];
+        double[] prefix_norms = new double[size];
+        int number_of_postings = 0;
+
+        for (int x = 0; x < size; x++) {
+
+            documents[x] = order[start + x];
+            vectors[x] = readVector(vector_channel, documents[x]);
+
+            SparseVector x_vector = vectors[x];
+            double bound = 0.0;
+            double prefix_sum_of_squares = 0.0;
+            prefix_lengths[x] = x_vector.size();
+
+            for (int i = 0; i < x_vector.size(); i++) {
+
+                int feature = x_vector.ids[i];
+                double weight = x_vector.weights[i] / x_vector.norm;
+                bound += Math.min(max_weight_of_feature[feature], max_weight_of_document[documents[x]]) * weight;
+
+                if (bound >= threshold) {
+                    if (prefix_lengths[x] == x_vector.size()) {
+                        prefix_lengths[x] = i;
+                    }
+                    number_of_postings++;
+
+                } else {
+                    prefix_max_weights[x] = Math.max(prefix_max_weights[x], weight);
+                    prefix_sum_of_squares += weight * weight;
+                }
+            }
+            prefix_norms[x] = Math.sqrt(prefix_sum_of_squares);
+        }
+
+        // each posting keyed by its feature and then its position in x order, so that sorting groups the postings of
+        // each feature with the vectors in processing order.
+        long[] keys = new long[number_of_postings];
+        int[] unsorted_documents = new int[number_of_postings];
+        float[] unsorted_weights = new float[number_of_postings];
+        int next_posting = 0;
+
+        for (int x = 0; x < size; x++) {
+            for (int i = prefix_lengths[x]; i < vectors[x].size(); i++) {
+                keys[next_posting] = (long) vectors[x].ids[i] << 32 | next_posting;
+                unsorted_documents[next_posting] = x;
+                unsorted_weights[next_posting++] = vectors[x].weights[i];
+            }
+        }
+        Arrays.sort(keys);
+
+        int[] indexed_features = new int[number_of_postings];
+        int[] posting_offsets = new int[number_of_postings + 1];
+        int[] posting_documents = new int[number_of_postings];
+        float[] posting_weights = new float[number_of_postings];
+        int number_of_indexed_features = 0;
+
+        for (int posting = 0; posting < number_of_postings; posting++) {
+
+            int feature = (int) (keys[posting] >>> 32);
+            int unsorted = (int) keys[posting];
+
+            if (number_of_indexed_features == 0 || indexed_features[number_of_indexed_features - 1] != feature) {
+                indexed_features[number_of_indexed_features] = feature;
+                posting_offsets[number_of_indexed_features++] = posting;
+            }
+            posting_documents[posting] = unsorted_documents[unsorted];
+            posting_weights[posting] = unsorted_weights[unsorted];
+        }
+        posting_offsets[number_of_indexed_features] = number_of_postings;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ChannelWriter writer = new ChannelWriter(channel, HEADER_SIZE);
+
+            for (int x = 0; x < size; x++) writer.putInt(vectors[x].size());
+            for (int x = 0; x < size; x++) writer.putInt(prefix_lengths[x]);
+            for (int x = 0; x < size; x++) writer.putDouble(vectors[x].norm);
+            for (int x = 0; x < size; x++) writer.putDouble(prefix_max_weights[x]);
+            for (int x = 0; x < size; x++) writer.putDouble(prefix_norms[x]);
+
+            // the documents immediately precede their vectors, so that both can be streamed by a probe.
+            for (int x = 0; x < size; x++) writer.putInt(documents[x]);
+
+            long vectors_offset = writer.position();
+            long vector_index_offset = MappedObjectList.write(writer, Arrays.asList(vectors), codec);
+
+            long postings_offset = writer.position();
+            for (int i = 0; i < number_of_indexed_features; i++) writer.putInt(indexed_features[i]);
+            for (int i = 0; i <= number_of_indexed_features; i++) writer.putInt(posting_offsets[i]);
+            for (int document : posting_documents) writer.putInt(document);
+            for (float weight : posting_weights) writer.putFloat(weight);
+            writer.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(size).putInt(number_of_postings).putLong(vectors_offset).putLong(vector_index_offset).putLong(postings_offset).putInt(number_of_indexed_features);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+    }
+
+    /**
+     * Probes the index of a block with its own vectors, each matched only against those before it, which were in the
+     * index when it was processed.
+     */
+    private void probeWithin(Block block, Consumer<SimilarityPair> sink) {
+
+        Probe probe = new Probe(block);
+
+        for (int x = 0; x < block.size; x++) {
+            probe.findMatches(block.vector(x), block.documents.get(x), x, sink);
+        }
+    }
+
+    /**
+     * Probes the index of a block with the vectors of a later block, read from its file as a stream.
+     */
+    private void probe(Block index_block, Path probe_path, Consumer<SimilarityPair> sink) throws IOException {
+
+        Probe probe = new Probe(index_block);
+
+        try (FileChannel channel = FileChannel.open(probe_path, StandardOpenOption.READ)) {
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new EOFException();
+                }
+            }
+            int size = header.getInt(0);
+            long vectors_offset = header.getLong(8);
+
+            channel.position(vectors_offset - 4L * size);
+            DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+
+            int[] documents = new int[size];
+            for (int x = 0; x < size; x++) {
+                documents[x] = input.readInt();
+            }
+
+            for (int x = 0; x < size; x++) {
+
+                int vector_size = input.readInt();
+                byte[] bytes = new byte[SparseVector.encodedSize(vector_size)];
+                ByteBuffer.wrap(bytes).putInt(vector_size);
+                input.readFully(bytes, 4, bytes.length - 4);
+
+                probe.findMatches(codec.decode(bytes), documents[x], index_block.size, sink);
+            }
+        }
+    }
+
+    /**
+     * The accumulated scores of the vectors of an index block during matching, reused for each vector probed.
+     */
+    private class Probe {
+
+        final Block index;
+        final double[] scores;      // the accumulated dot products, zero for vectors not yet candidates.
+        final int[] candidates;
+        final int[] last_matched;   // the least position in x of a feature matched in each candidate.
+
+        Probe(Block index) {
+
+            this.index = index;
+            scores = new double[index.size];
+            candidates = new int[index.size];
+            last_matched = new int[index.size];
+        }
+
+        /**
+         * Matches a vector against the vectors of the index before the limit, as in AllPairsJoin.
+         */
+        void findMatches(SparseVector x_vector, int x_document, int limit, Consumer<SimilarityPair> sink) {
+
+            int[] x_features = x_vector.ids;
+            float[] x_weights = x_vector.weights;
+            if (x_features.length == 0 || x_vector.norm == 0.0) {
+                return;
+            }
+
+            double remaining_score = 0.0;
+            double[] sums_of_squares = new double[x_features.length + 1];
+
+            for (int i = 0; i < x_features.length; i++) {
+                remaining_score += x_weights[i] / x_vector.norm * max_weight_of_feature[x_features[i]];
+                sums_of_squares[i + 1] = sums_of_squares[i] + (double) x_weights[i] * x_weights[i];
+            }
+
+            double min_size = Math.pow(threshold / max_weight_of_document[x_document], 2);
+            int number_of_candidates = 0;
+
+            for (int i = x_features.length - 1; i >= 0; i--) {   // rarest first.
+
+                int feature = x_features[i];
+                int indexed = index.indexOf(feature);
+
+                if (indexed >= 0) {
+
+                    int end = index.posting_offsets.get(indexed + 1);
+
+                    for (int posting = index.posting_offsets.get(indexed); posting < end; posting++) {
+
+                        int y = index.posting_documents.get(posting);
+                        if (y >= limit) {
+                            break;
+                        }
+                        if (index.sizes.get(y) >= min_size && (scores[y] != 0.0 || remaining_score >= threshold)) {
+                            if (scores[y] == 0.0) {
+                                candidates[number_of_candidates++] = y;
+                            }
+                            scores[y] += (double) x_weights[i] * index.posting_weights.get(posting);
+                            last_matched[y] = i;
+                        }
+                    }
+                }
+                remaining_score -= x_weights[i] / x_vector.norm * max_weight_of_feature[feature];
+            }
+
+            for (int candidate = 0; candidate < number_of_candidates; candidate++) {
+
+                int y = candidates[candidate];
+                double norms = x_vector.norm * index.norms.get(y);
+                double score = scores[y];
+                scores[y] = 0.0;
+
+                int prefix_length = index.prefix_lengths.get(y);
+                double x_overlap_norm = Math.sqrt(sums_of_squares[last_matched[y]]) / x_vector.norm;
+
+                double prefix_bound = Math.min(Math.min(prefix_length, x_features.length) * max_weight_of_document[x_document] * index.prefix_max_weights.get(y), x_overlap_norm * index.prefix_norms.get(y));
+                double bound = score / norms + prefix_bound;
+                if (bound >= threshold) {
+                    double similarity = (score + prefixDotProduct(x_vector, index.vector(y), prefix_length)) / norms;
+                    if (similarity >= threshold) {
+                        sink.accept(new SimilarityPair(x_document, index.documents.get(y), Math.min(similarity, 1.0)));
+                    }
+                }
+            }
+        }
+    }
+
+    private static double prefixDotProduct(SparseVector x, SparseVector y, int y_end) {
+
+        double dot_product = 0.0;
+        int i = 0;
+        int j = 0;
+
+        while (i < x.size() && j < y_end) {
+            if (x.ids[i] < y.ids[j]) {
+                i++;
+            } else if (x.ids[i] > y.ids[j]) {
+                j++;
+            } else {
+                dot_product += (double) x.weights[i++] * y.weights[j++];
+            }
+        }
+        return dot_product;
+    }
+
+    /**
+     * The file of a block, mapped as a single buffer whose sections are viewed as arrays.
+     */
+    private class Block {
+
+        final int size;
+        final IntBuffer sizes;
+        final IntBuffer prefix_lengths;
+        final DoubleBuffer norms;
+        final DoubleBuffer prefix_max_weights;
+        final DoubleBuffer prefix_norms;
+        final IntBuffer documents;
+        final ByteBuffer vector_data;
+        final LongBuffer vector_offsets;
+        final int number_of_indexed_features;
+        final IntBuffer indexed_features;   // sorted.
+        final IntBuffer posting_offsets;    // by position in indexed_features.
+        final IntBuffer posting_documents;
+        final FloatBuffer posting_weights;
+
+        Block(Path path) throws IOException {
+
+            ByteBuffer file;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                file = ChannelWriter.map(channel, 0, channel.size());
+            }
+
+            size = file.getInt(0);
+            int number_of_postings = file.getInt(4);
+            long vectors_offset = file.getLong(8);
+            long vector_index_offset = file.getLong(16);
+            long postings_offset = file.getLong(24);
+            number_of_indexed_features = file.getInt(32);
+
+            long position = HEADER_SIZE;
+            sizes = section(file, position, 4L * size).asIntBuffer();
+            prefix_lengths = section(file, position += 4L * size, 4L * size).asIntBuffer();
+            norms = section(file, position += 4L * size, 8L * size).asDoubleBuffer();
+            prefix_max_weights = section(file, position += 8L * size, 8L * size).asDoubleBuffer();
+            prefix_norms = section(file, position += 8L * size, 8L * size).asDoubleBuffer();
+            documents = section(file, position + 8L * size, 4L * size).asIntBuffer();
+
+            vector_data = section(file, vectors_offset, vector_index_offset - vectors_offset);
+            vector_offsets = section(file, vector_index_offset, 8L * (size + 1)).asLongBuffer();
+
+            long features_size = 4L * number_of_indexed_features;
+            long offsets_size = 4L * (number_of_indexed_features + 1);
+            indexed_features = section(file, postings_offset, features_size).asIntBuffer();
+            posting_offsets = section(file, position = postings_offset + features_size, offsets_size).asIntBuffer();
+            posting_documents = section(file, position += offsets_size, 4L * number_of_postings).asIntBuffer();
+            posting_weights = section(file, position + 4L * number_of_postings, 4L * number_of_postings).asFloatBuffer();
+        }
+
+        /**
+         * @return the position of the feature among those indexed in the block, or -1 if it has no postings
+         */
+        int indexOf(int feature) {
+
+            int low = 0;
+            int high = number_of_indexed_features - 1;
+
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int id = indexed_features.get(middle);
+                if (id < feature) {
+                    low = middle + 1;
+                } else if (id > feature) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        SparseVector vector(int x) {
+
+            int start = (int) vector_offsets.get(x);
+            byte[] bytes = new byte[(int) vector_offsets.get(x + 1) - start];
+            ByteBuffer buffer = vector_data.duplicate();
+            buffer.position(start);
+            buffer.get(bytes);
+            return codec.decode(bytes);
+        }
+
+        private ByteBuffer section(ByteBuffer file, long position, long length) {
+
+            ByteBuffer section = file.duplicate();
+            section.position((int) position);
+            section.limit((int) (position + length));
+            return section.slice();
+        }
+    }
+}
@@ -54,7 +54,10 @@ public class ShakespeareAllPairsExample {
             System.out.println("Looking up: " + sentence);
             List<SimilarityPair> matches = ap.getMatches(sentence);
 
-            System.out.println("Found: size = " + matches.size() + " " + matches);
+            System.out.println("Found: size = " + matches.size());
+            for (SimilarityPair match : matches) {
+                System.out.println("    " + ap.getDocument(match.a) + " / " + ap.getDocument(match.b) + " " + match.similarity);
+            }
         }
     }
 
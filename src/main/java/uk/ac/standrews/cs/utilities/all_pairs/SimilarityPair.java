@@ -17,17 +17,23 @@
 package uk.ac.standrews.cs.utilities.all_pairs;
 
 /**
+ * A pair of documents, identified by their positions in the joined collection, and their similarity.
  * Created by al on 27/09/2017.
  */
 public class SimilarityPair {
 
-    public final String a;
-    public final String b;
+    public final int a;
+    public final int b;
     public final double similarity;
 
-    public SimilarityPair(String a, String b, double similarity ) {
+    public SimilarityPair(int a, int b, double similarity ) {
         this.a = a;
         this.b = b;
         this.similarity = similarity;
     }
+
+    @Override
+    public String toString() {
+        return "(" + a + ", " + b + ", " + similarity + ")";
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.all_pairs;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+
+/**
+ * A sink that writes matches to a file as they are found, either as fixed size binary records of the two document
+ * ids and the similarity as a float, or as CSV lines.
+ */
+public abstract class SimilarityPairWriter implements Consumer<SimilarityPair>, Closeable {
+
+    public static final int RECORD_SIZE = 12;
+
+    /**
+     * @param path the file to create
+     * @return a writer of binary records, which may be read back with {@link #readBinary(Path, Consumer)}
+     */
+    public static SimilarityPairWriter binary(Path path) throws IOException {
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+
+        return new SimilarityPairWriter(output) {
+
+            @Override
+            void write(SimilarityPair pair) throws IOException {
+                output.writeInt(pair.a);
+                output.writeInt(pair.b);
+                output.writeFloat((float) pair.similarity);
+            }
+        };
+    }
+
+    /**
+     * @param path the file to create
+     * @return a writer of lines of the form a,b,similarity
+     */
+    public static SimilarityPairWriter csv(Path path) throws IOException {
+
+        Writer output = Files.newBufferedWriter(path);
+
+        return new SimilarityPairWriter(output) {
+
+            @Override
+            void write(SimilarityPair pair) throws IOException {
+                output.write(pair.a + "," + pair.b + "," + pair.similarity + "\n");
+            }
+        };
+    }
+
+    /**
+     * Reads a file written by a binary writer.
+     * @param path the file
+     * @param sink the consumer of the pairs read
+     */
+    public static void readBinary(Path path, Consumer<SimilarityPair> sink) throws IOException {
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+
+            long number_of_records = Files.size(path) / RECORD_SIZE;
+            for (long i = 0; i < number_of_records; i++) {
+                sink.accept(new SimilarityPair(input.readInt(), input.readInt(), input.readFloat()));
+            }
+        }
+    }
+
+    private final Closeable output;
+    private long number_written = 0;
+
+    private SimilarityPairWriter(Closeable output) {
+        this.output = output;
+    }
+
+    @Override
+    public void accept(SimilarityPair pair) {
+
+        try {
+            write(pair);
+            number_written++;
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public long getNumberWritten() {
+        return number_written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+
+    abstract void write(SimilarityPair pair) throws IOException;
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.all_pairs;
+
+import uk.ac.standrews.cs.utilities.Codec;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A sparse vector of feature weights, held as feature ids in increasing order and the corresponding weights,
+ * with its norm precomputed.
+ */
+public class SparseVector {
+
+    public final int[] ids;
+    public final float[] weights;
+    public final double norm;
+
+    /**
+     * @param ids the feature ids, in increasing order and without duplicates
+     * @param weights the corresponding weights
+     */
+    public SparseVector(int[] ids, float[] weights) {
+
+        if (ids.length != weights.length) {
+            throw new IllegalArgumentException("ids and weights differ in length");
+        }
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i] <= ids[i - 1]) {
+                throw new IllegalArgumentException("ids not strictly increasing");
+            }
+        }
+
+        this.ids = ids;
+        this.weights = weights;
+
+        double sum_of_squares = 0.0;
+        for (float weight : weights) {
+            sum_of_squares += (double) weight * weight;
+        }
+        norm = Math.sqrt(sum_of_squares);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return a codec that stores a vector as its size followed by its ids and weights
+     */
+    public static Codec<SparseVector> codec() {
+
+        return new Codec<SparseVector>() {
+
+            @Override
+            public byte[] encode(SparseVector vector) {
+
+                ByteBuffer buffer = ByteBuffer.allocate(encodedSize(vector.size()));
+                buffer.putInt(vector.size());
+                for (int id : vector.ids) {
+                    buffer.putInt(id);
+                }
+                for (float weight : vector.weights) {
+                    buffer.putFloat(weight);
+                }
+                return buffer.array();
+            }
+
+            @Override
+            public SparseVector decode(byte[] bytes) {
+
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                int size = buffer.getInt();
+                int[] ids = new int[size];
+                float[] weights = new float[size];
+                for (int i = 0; i < size; i++) {
+                    ids[i] = buffer.getInt();
+                }
+                for (int i = 0; i < size; i++) {
+                    weights[i] = buffer.getFloat();
+                }
+                return new SparseVector(ids, weights);
+            }
+        };
+    }
+
+    /**
+     * @return the number of bytes in the encoding of a vector of the given size
+     */
+    static int encodedSize(int size) {
+        return 4 + 8 * size;
+    }
+
+    /**
+     * @return the dot product, by a merge join of the ids
+     */
+    public double dot(SparseVector other) {
+
+        double dot_product = 0.0;
+        int i = 0;
+        int j = 0;
+
+        while (i < ids.length && j < other.ids.length) {
+            if (ids[i] < other.ids[j]) {
+                i++;
+            } else if (ids[i] > other.ids[j]) {
+                j++;
+            } else {
+                dot_product += (double) weights[i++] * other.weights[j++];
+            }
+        }
+        return dot_product;
+    }
+
+    /**
+     * @return the cosine similarity, or zero if either vector is empty
+     */
+    public double cosine(SparseVector other) {
+
+        if (norm == 0.0 || other.norm == 0.0) {
+            return 0.0;
+        }
+        return Math.min(dot(other) / (norm * other.norm), 1.0);
+    }
+
+    /**
+     * @param new_ids the new id of each current id
+     * @return this vector with its ids replaced, and reordered to keep them increasing
+     */
+    SparseVector remap(int[] new_ids) {
+
+        long[] entries = new long[ids.length];   // new id in the high half, position in the low half.
+        for (int i = 0; i < ids.length; i++) {
+            entries[i] = ((long) new_ids[ids[i]] << 32) | i;
+        }
+        Arrays.sort(entries);
+
+        int[] remapped_ids = new int[ids.length];
+        float[] remapped_weights = new float[ids.length];
+
+        for (int i = 0; i < entries.length; i++) {
+            remapped_ids[i] = (int) (entries[i] >>> 32);
+            remapped_weights[i] = weights[(int) entries[i]];
+        }
+        return new SparseVector(remapped_ids, remapped_weights);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.all_pairs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps qgrams to dense int ids, allocated in the order in which they are first seen.
+ */
+public class TokenDictionary {
+
+    public static final int ABSENT = -1;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> tokens = new ArrayList<>();
+
+    /**
+     * @param token a qgram
+     * @return the id of the qgram, allocating a new id if it has not been seen before
+     */
+    public int id(String token) {
+
+        Integer id = ids.get(token);
+        if (id == null) {
+            id = tokens.size();
+            ids.put(token, id);
+            tokens.add(token);
+        }
+        return id;
+    }
+
+    /**
+     * @param token a qgram
+     * @return the id of the qgram, or ABSENT if it has not been seen
+     */
+    public int lookup(String token) {
+
+        Integer id = ids.get(token);
+        return id == null ? ABSENT : id;
+    }
+
+    public String token(int id) {
+        return tokens.get(id);
+    }
+
+    public int size() {
+        return tokens.size();
+    }
+
+    /**
+     * Creates the qgram frequency vector of a document, allocating ids for any qgrams not seen before.
+     * @param document the document
+     * @param shingle_size the length of the qgrams
+     * @return the vector
+     */
+    public SparseVector vectorise(String document, int shingle_size) {
+
+        int number_of_qgrams = Math.max(document.length() - shingle_size + 1, 0);
+        int[] qgram_ids = new int[number_of_qgrams];
+
+        for (int i = 0; i < number_of_qgrams; i++) {
+            qgram_ids[i] = id(document.substring(i, i + shingle_size));
+        }
+        Arrays.sort(qgram_ids);
+
+        int distinct = 0;
+        for (int i = 0; i < number_of_qgrams; i++) {
+            if (i == 0 || qgram_ids[i] != qgram_ids[i - 1]) {
+                distinct++;
+            }
+        }
+
+        int[] feature_ids = new int[distinct];
+        float[] frequencies = new float[distinct];
+        int feature = -1;
+
+        for (int i = 0; i < number_of_qgrams; i++) {
+            if (i == 0 || qgram_ids[i] != qgram_ids[i - 1]) {
+                feature_ids[++feature] = qgram_ids[i];
+            }
+            frequencies[feature]++;
+        }
+        return new SparseVector(feature_ids, frequencies);
+    }
+}
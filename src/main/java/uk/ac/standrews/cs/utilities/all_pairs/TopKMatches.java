@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.all_pairs;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A sink that keeps only the k most similar matches of each document, in a bounded heap per document.
+ * Ties are broken in favour of the match whose other document has the smaller id, so that the result does not
+ * depend on the order in which matches arrive. Not thread-safe; the join calls its sink from one thread at a time.
+ */
+public class TopKMatches implements Consumer<SimilarityPair> {
+
+    private final int k;
+    private final List<PriorityQueue<SimilarityPair>> heaps;   // for each document, with the least similar match at the head.
+
+    /**
+     * @param number_of_documents the number of documents joined
+     * @param k the number of matches to keep for each document
+     */
+    public TopKMatches(int number_of_documents, int k) {
+
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+        heaps = new ArrayList<>(Collections.nCopies(number_of_documents, null));
+    }
+
+    @Override
+    public void accept(SimilarityPair pair) {
+
+        offer(pair.a, pair);
+        offer(pair.b, pair);
+    }
+
+    /**
+     * @param document a document id
+     * @return the kept matches of the document, most similar first
+     */
+    public List<SimilarityPair> get(int document) {
+
+        PriorityQueue<SimilarityPair> heap = heaps.get(document);
+        if (heap == null) {
+            return Collections.emptyList();
+        }
+
+        List<SimilarityPair> matches = new ArrayList<>(heap);
+        matches.sort(worstFirst(document).reversed());
+        return matches;
+    }
+
+    /**
+     * @return whether the document has k matches
+     */
+    boolean isFull(int document) {
+
+        PriorityQueue<SimilarityPair> heap = heaps.get(document);
+        return heap != null && heap.size() == k;
+    }
+
+    /**
+     * @return the similarity of the least similar match kept for the document, which must have at least one
+     */
+    double minimum(int document) {
+        return heaps.get(document).peek().similarity;
+    }
+
+    /**
+     * @return whether a match of the document with the other is kept
+     */
+    boolean contains(int document, int other) {
+
+        PriorityQueue<SimilarityPair> heap = heaps.get(document);
+        if (heap != null) {
+            for (SimilarityPair pair : heap) {
+                if (other(pair, document) == other) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keeps the match for the document if it is among the k most similar offered.
+     */
+    void offer(int document, SimilarityPair pair) {
+
+        PriorityQueue<SimilarityPair> heap = heaps.get(document);
+        if (heap == null) {
+            heap = new PriorityQueue<>(k, worstFirst(document));
+            heaps.set(document, heap);
+        }
+
+        if (heap.size() < k) {
+            heap.add(pair);
+
+        } else if (heap.comparator().compare(pair, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(pair);
+        }
+    }
+
+    private static Comparator<SimilarityPair> worstFirst(int document) {
+
+        return Comparator.comparingDouble((SimilarityPair pair) -> pair.similarity).thenComparing(pair -> -other(pair, document));
+    }
+
+    private static int other(SimilarityPair pair, int document) {
+        return pair.a == document ? pair.b : pair.a;
+    }
+}
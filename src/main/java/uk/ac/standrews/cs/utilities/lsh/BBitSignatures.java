@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.lsh;
+
+/**
+ * A compact store of minhash signatures keeping only the lowest b bits of each signature value (b-bit minwise hashing,
+ * Li and König, WWW 2010), packed 64 / b values to a long.
+ * <p>
+ * Two values that differ may agree in their lowest b bits, with probability about 2^-b when the sets are small
+ * relative to the range of the hashes, so the proportion of matching positions overestimates the Jaccard similarity;
+ * the estimators correct for this. The signatures are held in fixed size chunks, so that the store can grow to
+ * hundreds of millions of signatures without copying.
+ * Not synchronized.
+ */
+public class BBitSignatures {
+
+    private static final int CHUNK_WORDS = 1 << 20;
+
+    private final int signature_size;
+    private final int bits;
+    private final long mask;
+    private final int values_per_word;
+    private final int words_per_signature;
+    private final int signatures_per_chunk;
+
+    private long[][] chunks = new long[0][];
+    private int size = 0;
+
+    /**
+     * @param signature_size the number of values in each signature
+     * @param bits           the number of bits kept of each value: 1, 2, 4 or 8
+     */
+    public BBitSignatures(int signature_size, int bits) {
+
+        if (bits != 1 && bits != 2 && bits != 4 && bits != 8) {
+            throw new IllegalArgumentException("bits must be 1, 2, 4 or 8: " + bits);
+        }
+
+        this.signature_size = signature_size;
+        this.bits = bits;
+        this.mask = (1L << bits) - 1;
+        this.values_per_word = 64 / bits;
+        this.words_per_signature = (signature_size + values_per_word - 1) / values_per_word;
+        this.signatures_per_chunk = Math.max(1, CHUNK_WORDS / words_per_signature);
+    }
+
+    /**
+     * Adds a signature.
+     *
+     * @return the id of the signature
+     */
+    public int add(int[] signature) {
+
+        int id = size;
+        int chunk = id / signatures_per_chunk;
+
+        if (chunk == chunks.length) {
+            long[][] new_chunks = new long[chunks.length + 1][];
+            System.arraycopy(chunks, 0, new_chunks, 0, chunks.length);
+            new_chunks[chunk] = new long[signatures_per_chunk * words_per_signature];
+            chunks = new_chunks;
+        }
+
+        long[] words = chunks[chunk];
+        int offset = (id % signatures_per_chunk) * words_per_signature;
+
+        for (int index = 0; index < signature_size; index++) {
+            words[offset + index / values_per_word] |= (signature[index] & mask) << (bits * (index % values_per_word));
+        }
+
+        size++;
+        return id;
+    }
+
+    /**
+     * @return the estimated Jaccard similarity between the stored signature and a full signature
+     */
+    public double estimateSimilarity(int id, int[] signature) {
+
+        long[] words = chunks[id / signatures_per_chunk];
+        int offset = (id % signatures_per_chunk) * words_per_signature;
+
+        int matches = 0;
+        for (int index = 0; index < signature_size; index++) {
+            long value = (words[offset + index / values_per_word] >>> (bits * (index % values_per_word))) & mask;
+            if (value == (signature[index] & mask)) {
+                matches++;
+            }
+        }
+        return correct((double) matches / signature_size, bits);
+    }
+
+    /**
+     * @return the estimated Jaccard similarity between two stored signatures
+     */
+    public double estimateSimilarity(int id1, int id2) {
+
+        long[] words1 = chunks[id1 / signatures_per_chunk];
+        long[] words2 = chunks[id2 / signatures_per_chunk];
+        int offset1 = (id1 % signatures_per_chunk) * words_per_signature;
+        int offset2 = (id2 % signatures_per_chunk) * words_per_signature;
+
+        // positions in which the values agree have all their bits zero in the xor of the words.
+        int matches = 0;
+        for (int word = 0; word < words_per_signature; word++) {
+            long difference = words1[offset1 + word] ^ words2[offset2 + word];
+            int values = Math.min(values_per_word, signature_size - word * values_per_word);
+            for (int value = 0; value < values; value++) {
+                if (((difference >>> (bits * value)) & mask) == 0) {
+                    matches++;
+                }
+            }
+        }
+        return correct((double) matches / signature_size, bits);
+    }
+
+    /**
+     * Corrects the proportion of b-bit values that match for accidental matches.
+     *
+     * @return the estimated Jaccard similarity
+     */
+    public static double correct(double match_proportion, int bits) {
+
+        double accidental = 1.0 / (1L << bits);
+        return Math.max(0.0, (match_proportion - accidental) / (1.0 - accidental));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * @return the number of bytes used by the signatures added so far
+     */
+    public long bytes() {
+        return 8L * size * words_per_signature;
+    }
+}
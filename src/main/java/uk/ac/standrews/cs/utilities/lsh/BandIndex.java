@@ -0,0 +1,304 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.lsh;
+
+import uk.ac.standrews.cs.utilities.MappedArray;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * The buckets of a MinHash index: an open addressing hash table mapping band keys to posting lists of item ids.
+ * A band key combines the band number, in the high 32 bits, with the hash of the signature values in the band, so
+ * that equal hashes in different bands are kept apart.
+ * MinHash keeps one index per band, so that the bands can be filled in parallel.
+ * <p>
+ * An index opened from a file has a read-only base held in mapped arrays: the keys in sorted order, the offset of
+ * each key's postings, and the postings. Ids added after opening go into the hash table, and each lookup combines the
+ * two, base first.
+ * Not synchronized.
+ */
+class BandIndex {
+
+    private static final int bigprime = 2147483647;
+    private static final int someprime = 16777619;
+
+    private static final int EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int INITIAL_LIST_SIZE = 2;
+
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[] slots = newSlots(INITIAL_CAPACITY);   // index into lists for each key, or EMPTY.
+
+    private int[][] lists = new int[INITIAL_CAPACITY / 2][];
+    private int[] list_sizes = new int[INITIAL_CAPACITY / 2];
+    private long[] list_keys = new long[INITIAL_CAPACITY / 2];
+    private int number_of_keys = 0;           // in the hash table
+    private int number_of_shared_keys = 0;    // in both the hash table and the mapped base
+    private long number_of_postings = 0;
+
+    private final MappedArray mapped_keys;      // longs, sorted
+    private final MappedArray mapped_offsets;   // the position in mapped_postings of each key's postings, and of the end
+    private final MappedArray mapped_postings;
+    private final int number_of_mapped_keys;
+
+    BandIndex() {
+        this(new MappedArray(ByteBuffer.allocate(0), 8), new MappedArray(ByteBuffer.allocate(4), 4), new MappedArray(ByteBuffer.allocate(0), 4));
+    }
+
+    BandIndex(MappedArray mapped_keys, MappedArray mapped_offsets, MappedArray mapped_postings) {
+
+        this.mapped_keys = mapped_keys;
+        this.mapped_offsets = mapped_offsets;
+        this.mapped_postings = mapped_postings;
+        number_of_mapped_keys = (int) mapped_keys.length();
+        number_of_postings = mapped_postings.length();
+    }
+
+    /**
+     * @return the key of the given band of a signature
+     */
+    static long key(int[] signature, int band_number, int band_size) {
+
+        int offset = band_number * band_size;
+
+        int hash = salt_hash(bigprime, band_number);  // seed the hash function with the band - every band hashes differently.
+
+        for (int index = offset; index < offset + band_size; index++) {
+            hash = salt_hash(hash, signature[index]); // use all the integers in the band to calculate the hash code for this band,
+        }
+        return ((long) band_number << 32) | (hash & 0xffffffffL);
+    }
+
+    void add(long key, int id) {
+
+        int position = find(key);
+        int list = slots[position];
+
+        if (list == EMPTY) {
+            list = number_of_keys++;
+            if (list == lists.length) {
+                lists = Arrays.copyOf(lists, list * 2 + 1);
+                list_sizes = Arrays.copyOf(list_sizes, list * 2 + 1);
+                list_keys = Arrays.copyOf(list_keys, list * 2 + 1);
+            }
+            lists[list] = new int[INITIAL_LIST_SIZE];
+            list_keys[list] = key;
+            if (findMapped(key) >= 0) {
+                number_of_shared_keys++;
+            }
+            keys[position] = key;
+            slots[position] = list;
+            if (number_of_keys * 2 > keys.length) {
+                rehash();
+            }
+
+        } else if (list_sizes[list] == lists[list].length) {
+            lists[list] = Arrays.copyOf(lists[list], list_sizes[list] * 2 + 1);
+        }
+
+        lists[list][list_sizes[list]++] = id;
+        number_of_postings++;
+    }
+
+    /**
+     * Applies the action to each of the ids in the posting list for the key, if any.
+     */
+    void forEach(long key, IntConsumer action) {
+
+        int mapped = findMapped(key);
+        if (mapped >= 0) {
+            int end = mapped_offsets.getInt(mapped + 1);
+            for (int i = mapped_offsets.getInt(mapped); i < end; i++) {
+                action.accept(mapped_postings.getInt(i));
+            }
+        }
+
+        int list = slots[find(key)];
+        if (list != EMPTY) {
+            int[] ids = lists[list];
+            for (int i = 0; i < list_sizes[list]; i++) {
+                action.accept(ids[i]);
+            }
+        }
+    }
+
+    int numberOfKeys() {
+        return number_of_mapped_keys + number_of_keys - number_of_shared_keys;
+    }
+
+    long numberOfPostings() {
+        return number_of_postings;
+    }
+
+    /**
+     * @return the size of each posting list
+     */
+    int[] listSizes() {
+
+        int[] sizes = new int[numberOfKeys()];
+
+        for (int mapped = 0; mapped < number_of_mapped_keys; mapped++) {
+            sizes[mapped] = mapped_offsets.getInt(mapped + 1) - mapped_offsets.getInt(mapped);
+        }
+
+        int next = number_of_mapped_keys;
+        for (int list = 0; list < number_of_keys; list++) {
+            int mapped = findMapped(list_keys[list]);
+            if (mapped >= 0) {
+                sizes[mapped] += list_sizes[list];
+            } else {
+                sizes[next++] = list_sizes[list];
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * @return all the keys, in increasing order
+     */
+    long[] sortedKeys() {
+
+        long[] result = new long[numberOfKeys()];
+        for (int mapped = 0; mapped < number_of_mapped_keys; mapped++) {
+            result[mapped] = mapped_keys.getLong(mapped);
+        }
+
+        int next = number_of_mapped_keys;
+        for (int list = 0; list < number_of_keys; list++) {
+            if (findMapped(list_keys[list]) < 0) {
+                result[next++] = list_keys[list];
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * @return the ids in the posting list for the key, in the order they were added
+     */
+    int[] postings(long key) {
+
+        int mapped = findMapped(key);
+        int mapped_start = mapped >= 0 ? mapped_offsets.getInt(mapped) : 0;
+        int mapped_size = mapped >= 0 ? mapped_offsets.getInt(mapped + 1) - mapped_start : 0;
+        int list = slots[find(key)];
+        int list_size = list != EMPTY ? list_sizes[list] : 0;
+
+        int[] result = new int[mapped_size + list_size];
+        for (int i = 0; i < mapped_size; i++) {
+            result[i] = mapped_postings.getInt(mapped_start + i);
+        }
+        if (list != EMPTY) {
+            System.arraycopy(lists[list], 0, result, mapped_size, list_size);
+        }
+        return result;
+    }
+
+    /**
+     * Trims the posting lists to their sizes, once no more ids are to be added.
+     */
+    void compact() {
+
+        for (int list = 0; list < number_of_keys; list++) {
+            if (lists[list].length > list_sizes[list]) {
+                lists[list] = Arrays.copyOf(lists[list], list_sizes[list]);
+            }
+        }
+        lists = Arrays.copyOf(lists, number_of_keys);
+        list_sizes = Arrays.copyOf(list_sizes, number_of_keys);
+        list_keys = Arrays.copyOf(list_keys, number_of_keys);
+    }
+
+    //-------------------------------------------------------------
+
+    private static int salt_hash(int salt, int value) {
+        return (salt * someprime) ^ value;
+    }
+
+    /**
+     * @return the position of the key in the table, or of the empty slot where it would go
+     */
+    private int find(long key) {
+
+        int mask = keys.length - 1;
+        int position = mix(key) & mask;
+
+        while (slots[position] != EMPTY && keys[position] != key) {
+            position = (position + 1) & mask;
+        }
+        return position;
+    }
+
+    /**
+     * @return the position of the key in the mapped base, or a negative number if absent
+     */
+    private int findMapped(long key) {
+
+        int low = 0;
+        int high = number_of_mapped_keys - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middle_key = mapped_keys.getLong(middle);
+            if (middle_key < key) {
+                low = middle + 1;
+            } else if (middle_key > key) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private void rehash() {
+
+        long[] old_keys = keys;
+        int[] old_slots = slots;
+
+        keys = new long[old_keys.length * 2];
+        slots = newSlots(keys.length);
+
+        for (int position = 0; position < old_keys.length; position++) {
+            if (old_slots[position] != EMPTY) {
+                int new_position = find(old_keys[position]);
+                keys[new_position] = old_keys[position];
+                slots[new_position] = old_slots[position];
+            }
+        }
+    }
+
+    private static int[] newSlots(int capacity) {
+
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        return slots;
+    }
+
+    private static int mix(long key) {
+
+        // the finalisation step of MurmurHash3, as the band hashes are not well distributed in the low bits.
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -16,9 +16,17 @@
  */
 package uk.ac.standrews.cs.utilities.lsh;
 
-import uk.ac.standrews.cs.utilities.measures.coreConcepts.StringMeasure;
+import uk.ac.standrews.cs.utilities.Codec;
+import uk.ac.standrews.cs.utilities.measures.coreConcepts.Measure;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * Implementation of MinHash
@@ -26,15 +34,26 @@ import java.util.*;
  */
 public class MinHash<Data> {
 
-    private final static int someprime = 1190699; // this is a fine prime to use from https://primes.utm.edu/lists/small/small2.html
-    private final static int bigprime = 2147483647; // the biggest 32 bit prime integer?
-    private final static int anotherprime = 16777619;
-
     protected int shingle_size;
     protected int signature_size;
     protected int band_size;
 
-    protected HashMap<Band, Set<Data>> lsh_map = new HashMap<>();
+    protected final SignatureGenerator signature_generator;
+    protected final WeightedSignatureGenerator weighted_generator;   // null unless the signatures are weighted.
+
+    protected final BandIndex[] band_indices;                 // one per band.
+    protected final List<Data> items;          // the data, addressed by the ids held in the band indices.
+    protected List<int[]> signatures;          // the signatures of the data, addressed by id, or null if packed.
+    protected BBitSignatures packed_signatures = null;   // the signatures, if only the lowest bits are kept.
+
+    private MinHashStorage.AppendLog<Data> log = null;  // the log of items added, if opened from a file.
+    private Path path;
+    private Codec<Data> codec;
+
+    private static final int BATCH_SIZE = 10000;            // the number of records whose signatures are held at once by putAll.
+
+    // the table of candidates of the current query, kept by each thread and reused by its next query.
+    private final ThreadLocal<Candidates> candidate_tables = ThreadLocal.withInitial(Candidates::new);
 
     /**
      * Create a min hash map using default values of specified sizes
@@ -42,31 +61,154 @@ public class MinHash<Data> {
      * @param band_size - the size of the bands to use when placing into the min hash
      */
     public MinHash(int shingle_size, int num_bands, int band_size) {
+        this(shingle_size, num_bands, band_size, false);
+    }
+
+    private MinHash(int shingle_size, int num_bands, int band_size, boolean weighted) {
         this.shingle_size = shingle_size;
         this.signature_size = num_bands * band_size;
         this.band_size = band_size;
+        this.signature_generator = new SignatureGenerator(signature_size, shingle_size);
+        this.weighted_generator = weighted ? new WeightedSignatureGenerator(signature_size, shingle_size) : null;
+        this.band_indices = new BandIndex[num_bands];
+        for (int band_number = 0; band_number < num_bands; band_number++) {
+            band_indices[band_number] = new BandIndex();
+        }
+        this.items = new ArrayList<>();
+        this.signatures = new ArrayList<>();
     }
 
-    public MinHashStructure showStructure() {
-        return new MinHashStructure( this );
+    /**
+     * Creates a min hash map from existing contents, when opening a file.
+     */
+    MinHash(int shingle_size, int band_size, boolean weighted, BandIndex[] band_indices, List<Data> items, List<int[]> signatures) {
+        this.shingle_size = shingle_size;
+        this.signature_size = band_indices.length * band_size;
+        this.band_size = band_size;
+        this.signature_generator = new SignatureGenerator(signature_size, shingle_size);
+        this.weighted_generator = weighted ? new WeightedSignatureGenerator(signature_size, shingle_size) : null;
+        this.band_indices = band_indices;
+        this.items = items;
+        this.signatures = signatures;
+    }
+
+    /**
+     * Creates a min hash map whose signatures take account of how often each ngram occurs in a key, so that keys are
+     * found according to the weighted Jaccard similarity of their ngram frequencies.
+     * Multi-probe queries are not supported, since weighted signatures have no second smallest hashes.
+     * @param num_bands - the number of bands to use in the final hash
+     * @param band_size - the size of the bands to use when placing into the min hash
+     * @see WeightedSignatureGenerator
+     */
+    public static <Data> MinHash<Data> weighted(int shingle_size, int num_bands, int band_size) {
+
+        return new MinHash<>(shingle_size, num_bands, band_size, true);
+    }
+
+    /**
+     * Keeps only the lowest bits of each signature value, packed into longs, to save memory. Ranked queries then
+     * estimate similarity with a correction for accidental matches of the lowest bits. Must be called before any items
+     * are added, and an index with packed signatures cannot be saved.
+     * @param bits - the number of bits kept: 1, 2, 4 or 8
+     * @see BBitSignatures
+     */
+    public void setSignatureBits(int bits) {
+
+        if (!items.isEmpty()) {
+            throw new IllegalStateException("signature bits must be set before items are added");
+        }
+        packed_signatures = new BBitSignatures(signature_size, bits);
+        signatures = null;
     }
 
     /**
-     * The hash function used to calculate minhash
-     * By altering the params can create a family of different unique hash functions.
+     * Opens a MinHash index previously written by save().
+     * The file is memory mapped, so opening is fast regardless of the size of the index and the mapped pages are
+     * shared by all the processes on a host that open the same file. Items may still be put into the opened index;
+     * they are held on the heap and recorded in a log alongside the file, which is replayed when the file is next
+     * opened, until mergeLog() is called. Only one process should put items into an index at a time.
      *
-     * @param inputData - the object for which we are creating a hash
-     * @param seedOne   - the first seed used to generate a particular unique hash
-     * @param seedTwo   - the second seed used to generate a particular unique hash
-     * @return the hash of the inputData supplied to the method.
+     * @param path  the file to be opened
+     * @param codec the codec used when the index was saved
+     * @return the opened index
+     * @throws IOException if the file cannot be read or is not a MinHash index
+     */
+    public static <Data> MinHash<Data> open(Path path, Codec<Data> codec) throws IOException {
+
+        return MinHashStorage.open(path, codec);
+    }
+
+    /**
+     * Writes the index to a file from which it can be opened by open(). Saving an opened index to the file it was
+     * opened from merges its log, as mergeLog() does.
+     *
+     * @param path  the file to be written
+     * @param codec the codec used to encode the items
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path path, Codec<Data> codec) throws IOException {
+
+        if (log != null && Files.exists(path) && Files.isSameFile(path, this.path)) {
+            MinHashStorage.merge(this, path, codec, log);
+        } else {
+            MinHashStorage.save(this, path, codec);
+        }
+    }
+
+    /**
+     * Rewrites the file from which this index was opened to include the items logged since, and empties the log.
+     * Processes that already have the file open keep their view of the previous version until they reopen it.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void mergeLog() throws IOException {
+
+        if (log == null) {
+            throw new IllegalStateException("index was not opened from a file");
+        }
+        MinHashStorage.merge(this, path, codec, log);
+    }
+
+    /**
+     * Closes the log of an index opened from a file; does nothing otherwise.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    public void close() throws IOException {
+
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    void setLog(MinHashStorage.AppendLog<Data> log, Path path, Codec<Data> codec) {
+
+        this.log = log;
+        this.path = path;
+        this.codec = codec;
+    }
+
+    /**
+     * Creates a min hash map with the number and size of bands chosen to find pairs above a Jaccard similarity threshold.
+     * @param threshold - the Jaccard similarity of the ngram sets above which keys should be found by getClosest
+     * @param max_false_negative_rate - the maximum proportion of keys above the threshold that may be missed
+     * @param max_false_positive_rate - the maximum proportion of keys below the threshold that may be returned
+     * @param max_bytes_per_item - the memory budget per item
+     * @throws IllegalArgumentException if no choice of bands within the memory budget meets the rates
+     * @see MinHashParameters
      */
-    private static int hashFunction(Object inputData, int seedOne, int seedTwo) {
+    public static <Data> MinHash<Data> forThreshold(int shingle_size, double threshold, double max_false_negative_rate, double max_false_positive_rate, int max_bytes_per_item) {
 
-        // TODO is this intended to overflow?
-        int hash = bigprime * anotherprime ^ seedOne;
-        hash = hash * anotherprime ^ seedTwo;
-        hash = hash * anotherprime ^ inputData.hashCode();
-        return hash;
+        MinHashParameters parameters = MinHashParameters.choose(threshold, max_false_negative_rate, max_false_positive_rate, max_bytes_per_item);
+        if (!parameters.meets_targets) {
+            throw new IllegalArgumentException("cannot meet target rates within memory budget; nearest is " + parameters);
+        }
+        return new MinHash<>(shingle_size, parameters.num_bands, parameters.band_size);
+    }
+
+    public MinHashStructure showStructure() {
+        return new MinHashStructure( this );
     }
 
     /**
@@ -77,50 +219,116 @@ public class MinHash<Data> {
      */
     public static Integer[] createMinHashSignature(String src, int sig_size, int shingle_size) {
 
-        Set<String> set_ngrams = StringMeasure.extractNGrams(src, shingle_size);
+        int[] signature = new SignatureGenerator(sig_size, shingle_size).signature(src);
 
-        // Create a min hash array initialized to all int max values
-        Integer[] signature = new Integer[sig_size];
+        Integer[] result = new Integer[sig_size];
         for (int index = 0; index < sig_size; index++) {
-            signature[index] = Integer.MAX_VALUE;
+            result[index] = signature[index];
         }
+        return result;
+    }
 
-        for (String token : set_ngrams) { // for each of the ngrams...
+    /**
+     * Put the value into a LSH Map with key key.
+     * @param key - the key to which the data should be mapped
+     * @param value - the value to addHint in the map.
+     */
+    public void put(String key, Data value) {
 
-            Iterator<Integer> seeds = new Random(someprime).ints().iterator(); // a deterministic feed of random numbers - use the same hashes every each time
+        int[] minHashSignature = signature(key);
 
-            for (int index = 0; index < sig_size; index++) { // do the hashing for each of the hash functions
+        appendToLog(key, value);
+        flushLog();
 
-                int currentHashValue = hashFunction(token, seeds.next(), seeds.next()); // do the hash
+        int id = items.size();
+        items.add(value);
+        storeSignature(minHashSignature);
 
-                if (currentHashValue < signature[index]) { //Only retain the minimum value and addHint into signature
-                    signature[index] = currentHashValue;
-                }
+        for (int band_number = 0; band_number * band_size < minHashSignature.length; band_number++) {
+
+            band_indices[band_number].add(BandIndex.key(minHashSignature, band_number, band_size), id);
+        }
+    }
+
+    /**
+     * Puts all the entries of the stream into the map, as if by put.
+     * @param entries - the keys and values to be added
+     */
+    public void putAll(Stream<Map.Entry<String, Data>> entries) {
+
+        putAll(entries.iterator());
+    }
+
+    /**
+     * Puts all the entries from the iterator into the map, as if by put, in the order they are supplied.
+     * The entries are consumed in batches; the signatures of each batch are computed in parallel and then the bands
+     * are filled in parallel, each by one thread. Only the keys are streamed, one batch at a time: the values,
+     * signatures and band postings of every entry are held on the heap until the index is saved, so the whole index,
+     * though not its keys, must fit in memory.
+     * @param entries - the keys and values to be added
+     */
+    public void putAll(Iterator<Map.Entry<String, Data>> entries) {
+
+        List<String> keys = new ArrayList<>(BATCH_SIZE);
+
+        while (entries.hasNext()) {
+
+            keys.clear();
+            int first_id = items.size();
+
+            while (entries.hasNext() && keys.size() < BATCH_SIZE) {
+                Map.Entry<String, Data> entry = entries.next();
+                keys.add(entry.getKey());
+                items.add(entry.getValue());
+                appendToLog(entry.getKey(), entry.getValue());
+            }
+            flushLog();
+
+            int[][] batch_signatures = keys.parallelStream().map(this::signature).toArray(int[][]::new);
+            for (int[] signature : batch_signatures) {
+                storeSignature(signature);
             }
+
+            IntStream.range(0, band_indices.length).parallel().forEach(band_number -> {
+                for (int i = 0; i < batch_signatures.length; i++) {
+                    band_indices[band_number].add(BandIndex.key(batch_signatures[i], band_number, band_size), first_id + i);
+                }
+            });
         }
-        return signature;
     }
 
     /**
-     * Put the value into a LSH Map with key key.
-     * @param key - the key to which the data should be mapped
-     * @param value - the value to addHint in the map.
+     * Trims the index to its current size, to be called when no more entries are to be added.
      */
-    public void put(String key, Data value) {
+    public void compact() {
 
-        Integer[] minHashSignature = createMinHashSignature(key, signature_size, shingle_size);
+        Arrays.stream(band_indices).parallel().forEach(BandIndex::compact);
+        if (items instanceof ArrayList) {
+            ((ArrayList<Data>) items).trimToSize();
+        }
+        if (signatures instanceof ArrayList) {
+            ((ArrayList<int[]>) signatures).trimToSize();
+        }
+    }
 
-        for (int band_number = 0; band_number * band_size < minHashSignature.length; band_number++) {
+    private void appendToLog(String key, Data value) {
+
+        if (log != null) {
+            try {
+                log.append(key, value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
 
-            Band b = new Band(minHashSignature, band_number, band_size);
+    private void flushLog() {
 
-            Set<Data> entries = lsh_map.get(b);
-            if (entries == null) {
-                entries = new HashSet<>();   // create a new set of entries,
-                entries.add(value);               // add_worker the string to it,
-                lsh_map.put(b,entries);         // and add_worker the new entry to the map.
-            } else {
-                entries.add(value); // add_worker the string to the existing map bucket.
+        if (log != null) {
+            try {
+                log.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
         }
     }
@@ -131,29 +339,301 @@ public class MinHash<Data> {
      */
     public Set<Data> getClosest(String key) {
 
+        return getClosest(key, 0);
+    }
+
+    /**
+     * Multi-probe query: as well as the bucket matching the key in each band, probes up to probe_budget neighbouring
+     * buckets, so that fewer bands are needed for the same recall.
+     * Neighbouring buckets are found by perturbing the signature positions whose minimum hash is least secure - those
+     * with the smallest gap to the second smallest hash, which a similar key lacking the minimising ngram would have
+     * in that position instead. The perturbations of all the bands are probed together, most likely first.
+     * @param key - the key of the data to be searched.
+     * @param probe_budget - the number of extra buckets to probe, over all the bands.
+     * @return the set of data that are mapped by the key or by one of the probed perturbations of it
+     */
+    public Set<Data> getClosest(String key, int probe_budget) {
+
+        Candidates candidates = candidates(key, probe_budget, false, null);
+
         Set<Data> result = new HashSet<>();
+        for (int index = 0; index < candidates.size; index++) {
+            result.add(items.get(candidates.ids[index]));
+        }
+        return result;
+    }
+
+    /**
+     * Ranked query: finds the candidates as getClosest does, estimates their Jaccard similarity to the key from the
+     * stored signatures, and returns the k most similar whose estimated similarity is at least the threshold.
+     * @param key - the key of the data to be searched.
+     * @param probe_budget - the number of extra buckets to probe, as for getClosest.
+     * @param threshold - the minimum estimated Jaccard similarity of the results.
+     * @param k - the maximum number of results.
+     * @return the matches, most similar first
+     */
+    public List<MinHashMatch<Data>> getRanked(String key, int probe_budget, double threshold, int k) {
 
-        Integer[] minHashSignature = createMinHashSignature(key, signature_size, shingle_size);
+        return getRanked(key, probe_budget, threshold, k, null, null);
+    }
 
-        for (int band_number = 0; band_number * band_size < minHashSignature.length; band_number++) {
+    /**
+     * Ranked query with verification: finds the candidates as getClosest does, discards those whose estimated Jaccard
+     * similarity to the key is below the threshold, and returns the k nearest of the rest to the query value
+     * according to the measure. Only the k best so far are kept, and once there are k each further candidate is
+     * measured with the distance of the kth as a bound, so that measures able to abandon their calculation do so for
+     * candidates that cannot enter the results.
+     * @param key - the key of the data to be searched.
+     * @param probe_budget - the number of extra buckets to probe, as for getClosest.
+     * @param threshold - the minimum estimated Jaccard similarity of the results.
+     * @param k - the maximum number of results.
+     * @param query - the value against which the candidates are measured.
+     * @param measure - the measure giving the exact distance, or null to rank by estimated similarity.
+     * @return the matches, nearest first
+     */
+    public List<MinHashMatch<Data>> getRanked(String key, int probe_budget, double threshold, int k, Data query, Measure<Data> measure) {
+
+        int[][] signature = new int[1][];
+        Candidates candidates = candidates(key, probe_budget, true, signature);
 
-            Band b = new Band(minHashSignature, band_number, band_size);
-            Set<Data> found = lsh_map.get(b);
-            if (found != null) {
-                result.addAll(found);
+        Comparator<MinHashMatch<Data>> order = measure == null ?
+                Comparator.<MinHashMatch<Data>>comparingDouble(match -> -match.estimated_similarity).thenComparingInt(match -> -match.matching_bands) :
+                Comparator.comparingDouble(match -> match.distance);
+
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+
+        // the k best so far, with the worst of them at the head.
+        PriorityQueue<MinHashMatch<Data>> best = new PriorityQueue<>(Math.min(k, candidates.size) + 1, order.reversed());
+
+        for (int index = 0; index < candidates.size; index++) {
+
+            int id = candidates.ids[index];
+            double estimated_similarity = estimateSimilarity(signature[0], id);
+
+            if (estimated_similarity >= threshold) {
+
+                Data value = items.get(id);
+                boolean full = best.size() == k;
+                double distance = measure == null ? Double.NaN :
+                        full ? measure.distanceBounded(query, value, best.peek().distance) : measure.distance(query, value);
+
+                MinHashMatch<Data> match = new MinHashMatch<>(value, estimated_similarity, candidates.counts[id], distance);
+                if (!full) {
+                    best.add(match);
+                } else if (order.compare(match, best.peek()) < 0) {
+                    best.poll();
+                    best.add(match);
+                }
             }
         }
+
+        List<MinHashMatch<Data>> matches = new ArrayList<>(best);
+        matches.sort(order);
+        return matches;
+    }
+
+    /**
+     * @param count_bands - whether to count the buckets containing each item, or only to find the items.
+     * @param signature_holder - if not null, receives the signature of the key.
+     * @return the ids of the items found in any bucket probed for the key, with the number of those buckets
+     * containing each if counted; valid until the thread's next query
+     */
+    private Candidates candidates(String key, int probe_budget, boolean count_bands, int[][] signature_holder) {
+
+        Candidates result = candidate_tables.get();
+        result.reset(items.size(), count_bands);
+
+        if (probe_budget > 0 && weighted_generator != null) {
+            throw new IllegalArgumentException("multi-probe queries are not supported with weighted signatures");
+        }
+
+        long[] runners_up = probe_budget > 0 ? new long[signature_size] : null;
+        int[] minHashSignature = probe_budget > 0 ? signature_generator.signature(key, runners_up) : signature(key);
+
+        for (int band_number = 0; band_number * band_size < minHashSignature.length; band_number++) {
+
+            probe(band_number, BandIndex.key(minHashSignature, band_number, band_size), result);
+        }
+
+        if (probe_budget > 0) {
+            probePerturbations(minHashSignature, runners_up, probe_budget, result);
+        }
+        if (signature_holder != null) {
+            signature_holder[0] = minHashSignature;
+        }
         return result;
     }
 
+    private void probe(int band_number, long band_key, Candidates result) {
+
+        band_indices[band_number].forEach(band_key, result);
+    }
+
+    private int[] signature(String key) {
+
+        return weighted_generator != null ? weighted_generator.signature(key) : signature_generator.signature(key);
+    }
+
+    private void storeSignature(int[] signature) {
+
+        if (packed_signatures != null) {
+            packed_signatures.add(signature);
+        } else {
+            signatures.add(signature);
+        }
+    }
+
+    private double estimateSimilarity(int[] signature, int id) {
+
+        return packed_signatures != null ? packed_signatures.estimateSimilarity(id, signature) : estimateSimilarity(signature, signatures.get(id));
+    }
+
+    private static double estimateSimilarity(int[] signature1, int[] signature2) {
+
+        int equal = 0;
+        for (int index = 0; index < signature1.length; index++) {
+            if (signature1[index] == signature2[index]) {
+                equal++;
+            }
+        }
+        return (double) equal / signature1.length;
+    }
+
+    /**
+     * Probes perturbed bands in increasing order of total gap between the minimum and second smallest hashes of the
+     * perturbed positions, generating the perturbation sets of each band lazily by the shift and expand operations
+     * of Lv et al., Multi-Probe LSH, VLDB 2007.
+     */
+    private void probePerturbations(int[] signature, long[] runners_up, int probe_budget, Candidates result) {
+
+        int num_bands = signature_size / band_size;
+        int[][] positions_by_gap = new int[num_bands][];   // for each band, its perturbable signature positions, smallest gap first.
+        long[][] sorted_gaps = new long[num_bands][];
+
+        PriorityQueue<Perturbation> queue = new PriorityQueue<>();
+
+        for (int band_number = 0; band_number < num_bands; band_number++) {
+
+            int offset = band_number * band_size;
+            List<Integer> positions = new ArrayList<>();
+            for (int index = offset; index < offset + band_size; index++) {
+                if (runners_up[index] != SignatureGenerator.NO_RUNNER_UP) {
+                    positions.add(index);
+                }
+            }
+            positions.sort(Comparator.comparingLong(index -> runners_up[index] - signature[index]));
+
+            positions_by_gap[band_number] = new int[positions.size()];
+            sorted_gaps[band_number] = new long[positions.size()];
+            for (int i = 0; i < positions.size(); i++) {
+                positions_by_gap[band_number][i] = positions.get(i);
+                sorted_gaps[band_number][i] = runners_up[positions.get(i)] - signature[positions.get(i)];
+            }
+
+            if (positions.size() > 0) {
+                queue.add(new Perturbation(band_number, new int[]{0}, sorted_gaps[band_number][0]));
+            }
+        }
+
+        int[] perturbed = signature.clone();
+
+        for (int probes = 0; probes < probe_budget && !queue.isEmpty(); probes++) {
+
+            Perturbation next = queue.poll();
+            int[] positions = positions_by_gap[next.band_number];
+            long[] gaps = sorted_gaps[next.band_number];
+
+            for (int member : next.members) {
+                perturbed[positions[member]] = (int) runners_up[positions[member]];
+            }
+            probe(next.band_number, BandIndex.key(perturbed, next.band_number, band_size), result);
+            for (int member : next.members) {
+                perturbed[positions[member]] = signature[positions[member]];
+            }
+
+            int last = next.members[next.members.length - 1];
+            if (last + 1 < positions.length) {
+
+                int[] shifted = next.members.clone();
+                shifted[shifted.length - 1] = last + 1;
+                queue.add(new Perturbation(next.band_number, shifted, next.gap - gaps[last] + gaps[last + 1]));
+
+                int[] expanded = Arrays.copyOf(next.members, next.members.length + 1);
+                expanded[expanded.length - 1] = last + 1;
+                queue.add(new Perturbation(next.band_number, expanded, next.gap + gaps[last + 1]));
+            }
+        }
+    }
+
+    /**
+     * The items found by a query, as a table of counts indexed by id together with the list of the ids found, so that
+     * the table can be cleared for the next query by visiting only those ids.
+     */
+    private static class Candidates implements IntConsumer {
+
+        int[] counts = new int[0];   // the number of buckets containing each item, or 1 if not counted; 0 if not found.
+        int[] ids = new int[0];      // the ids found, in the order found.
+        int size;
+        boolean count_bands;
+
+        void reset(int number_of_items, boolean count_bands) {
+
+            for (int index = 0; index < size; index++) {
+                counts[ids[index]] = 0;
+            }
+            size = 0;
+            if (counts.length < number_of_items) {
+                counts = new int[Math.max(number_of_items, counts.length * 2)];
+                ids = new int[counts.length];
+            }
+            this.count_bands = count_bands;
+        }
+
+        @Override
+        public void accept(int id) {
+
+            if (counts[id] == 0) {
+                ids[size++] = id;
+                counts[id] = 1;
+            } else if (count_bands) {
+                counts[id]++;
+            }
+        }
+    }
+
+    /**
+     * A set of signature positions in a band to be replaced by their second smallest hashes, identified by their
+     * ranks in the band's positions sorted by gap.
+     */
+    private static class Perturbation implements Comparable<Perturbation> {
+
+        final int band_number;
+        final int[] members;
+        final long gap;
+
+        Perturbation(int band_number, int[] members, long gap) {
+            this.band_number = band_number;
+            this.members = members;
+            this.gap = gap;
+        }
+
+        @Override
+        public int compareTo(Perturbation other) {
+            return Long.compare(gap, other.gap);
+        }
+    }
+
     /**
      * A debug/diagnostic method to inspect the size of the rhs of the mappings
      */
     public void printMap() {
 
-        for( Map.Entry<Band, Set<Data>> me : lsh_map.entrySet() ) {
-            Set<Data> entries = me.getValue();
-            System.out.println( entries.size() );
+        for (BandIndex band_index : band_indices) {
+            for (int size : band_index.listSizes()) {
+                System.out.println(size);
+            }
         }
     }
 }
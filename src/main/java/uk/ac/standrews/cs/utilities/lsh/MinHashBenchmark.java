@@ -0,0 +1,161 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.lsh;
+
+import uk.ac.standrews.cs.utilities.measures.Jaccard;
+import uk.ac.standrews.cs.utilities.measures.coreConcepts.StringMeasure;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Measures the empirical recall and candidate counts of MinHash indices with different parameters.
+ * <p>
+ * The keys whose ngram sets have a Jaccard similarity to each of a sample of queries at or above a threshold are first
+ * found by brute force. A MinHash index is then built over the keys for each choice of parameters, and queried with
+ * each sample query, recording the proportion of the brute force results found, the number of candidates returned
+ * and the mean query time. The results can be compared with the rates predicted by MinHashParameters.
+ */
+public class MinHashBenchmark {
+
+    private final List<String> data;
+    private final List<String> queries;
+    private final int shingle_size;
+    private final double threshold;
+    private final List<Set<Integer>> ground_truth = new ArrayList<>();
+
+    /**
+     * @param data         the keys to be indexed
+     * @param queries      a sample of queries
+     * @param shingle_size the ngram size used by the indices
+     * @param threshold    the Jaccard similarity at or above which keys should be found
+     */
+    public MinHashBenchmark(List<String> data, List<String> queries, int shingle_size, double threshold) {
+
+        this.data = data;
+        this.queries = queries;
+        this.shingle_size = shingle_size;
+        this.threshold = threshold;
+
+        Jaccard jaccard = new Jaccard();
+        List<Set<String>> data_ngrams = new ArrayList<>();
+        for (String key : data) {
+            data_ngrams.add(StringMeasure.extractNGrams(key, shingle_size));
+        }
+
+        for (String query : queries) {
+
+            Set<String> query_ngrams = StringMeasure.extractNGrams(query, shingle_size);
+            Set<Integer> similar = new HashSet<>();
+
+            for (int id = 0; id < data.size(); id++) {
+                if (!query_ngrams.isEmpty() && 1.0 - jaccard.distance(query_ngrams, data_ngrams.get(id)) >= threshold) {
+                    similar.add(id);
+                }
+            }
+            ground_truth.add(similar);
+        }
+    }
+
+    /**
+     * @return the results of querying an index with the parameters chosen for the threshold and targets
+     */
+    public Result measure(double max_false_negative_rate, double max_false_positive_rate, int max_bytes_per_item, int probe_budget) {
+
+        MinHashParameters parameters = MinHashParameters.choose(threshold, max_false_negative_rate, max_false_positive_rate, max_bytes_per_item);
+        return measure(parameters.num_bands, parameters.band_size, probe_budget);
+    }
+
+    /**
+     * @return the results of querying an index with the given number and size of bands
+     */
+    public Result measure(int num_bands, int band_size, int probe_budget) {
+
+        MinHash<Integer> minhash = new MinHash<>(shingle_size, num_bands, band_size);
+        minhash.putAll(IntStream.range(0, data.size()).mapToObj(id -> new AbstractMap.SimpleEntry<>(data.get(id), id)));
+        minhash.compact();
+
+        long true_pairs = 0;
+        long found_pairs = 0;
+        long candidates = 0;
+        long time = 0;
+
+        for (int index = 0; index < queries.size(); index++) {
+
+            long start = System.nanoTime();
+            Set<Integer> result = minhash.getClosest(queries.get(index), probe_budget);
+            time += System.nanoTime() - start;
+
+            Set<Integer> truth = ground_truth.get(index);
+            true_pairs += truth.size();
+            candidates += result.size();
+            for (int id : truth) {
+                if (result.contains(id)) {
+                    found_pairs++;
+                }
+            }
+        }
+
+        double recall = true_pairs == 0 ? 1.0 : (double) found_pairs / true_pairs;
+        double precision = candidates == 0 ? 1.0 : (double) found_pairs / candidates;
+
+        return new Result(minhash.showStructure(), num_bands, probe_budget, recall, precision,
+                (double) candidates / queries.size(), time / 1000.0 / queries.size(),
+                MinHashParameters.candidateProbability(threshold, num_bands, band_size));
+    }
+
+    /**
+     * @return a table of the results, highest recall first
+     */
+    public static String report(List<Result> results) {
+
+        List<Result> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingDouble((Result r) -> -r.recall).thenComparingDouble(r -> r.mean_candidates));
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%6s %6s %6s %8s %10s %12s %14s %12s%n", "bands", "rows", "probes", "recall", "precision", "candidates", "query time us", "postings"));
+
+        for (Result result : sorted) {
+            builder.append(String.format("%6d %6d %6d %8.3f %10.3f %12.1f %14.1f %12d%n", result.num_bands, result.structure.band_size, result.probe_budget,
+                    result.recall, result.precision, result.mean_candidates, result.mean_query_time_us, result.structure.number_of_postings));
+        }
+        return builder.toString();
+    }
+
+    public static class Result {
+
+        public final MinHashStructure structure;      // the parameters and size of the index
+        public final int num_bands;
+        public final int probe_budget;
+        public final double recall;                   // the proportion of keys at or above the threshold found
+        public final double precision;                // the proportion of candidates at or above the threshold
+        public final double mean_candidates;          // the mean number of candidates per query
+        public final double mean_query_time_us;       // in microseconds
+        public final double threshold_probability;    // the predicted probability of finding a key exactly at the threshold
+
+        Result(MinHashStructure structure, int num_bands, int probe_budget, double recall, double precision, double mean_candidates, double mean_query_time_us, double threshold_probability) {
+            this.structure = structure;
+            this.num_bands = num_bands;
+            this.probe_budget = probe_budget;
+            this.recall = recall;
+            this.precision = precision;
+            this.mean_candidates = mean_candidates;
+            this.mean_query_time_us = mean_query_time_us;
+            this.threshold_probability = threshold_probability;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.lsh;
+
+import uk.ac.standrews.cs.utilities.measures.coreConcepts.DataDistance;
+
+/**
+ * A candidate returned by a ranked MinHash query, with the evidence for it.
+ * The distance is that given by the measure supplied with the query, or NaN if none was supplied.
+ */
+public class MinHashMatch<T> extends DataDistance<T> {
+
+    public final double estimated_similarity;   // the proportion of signature positions equal to those of the query
+    public final int matching_bands;            // the number of buckets probed by the query that contain the candidate
+
+    MinHashMatch(T data, double estimated_similarity, int matching_bands, double distance) {
+
+        super(data, distance);
+        this.estimated_similarity = estimated_similarity;
+        this.matching_bands = matching_bands;
+    }
+
+    public String toString() {
+        return value + " (similarity " + estimated_similarity + ", bands " + matching_bands + ", distance " + distance + ")";
+    }
+}
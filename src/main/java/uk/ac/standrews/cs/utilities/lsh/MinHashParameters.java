@@ -0,0 +1,143 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.lsh;
+
+/**
+ * Chooses the number of bands b and rows per band r for a MinHash index from a target Jaccard similarity threshold.
+ * <p>
+ * A pair of similarity s becomes a candidate with probability P(s) = 1 - (1 - s^r)^b, the S-curve. Taking similarities
+ * to be uniformly distributed, the false positive rate is the mean of P(s) below the threshold, and the false negative
+ * rate the mean of 1 - P(s) above it. The memory used per item is estimated as 4 bytes for each signature value stored
+ * plus 4 bytes for each band posting, after compaction.
+ */
+public class MinHashParameters {
+
+    private static final int MAX_SIGNATURE_SIZE = 1024;
+    private static final int INTEGRATION_STEPS = 200;
+
+    public final int num_bands;
+    public final int band_size;
+    public final double false_positive_rate;
+    public final double false_negative_rate;
+    public final int bytes_per_item;
+    public final boolean meets_targets;   // whether the false positive and negative rates are within those requested
+
+    private MinHashParameters(int num_bands, int band_size, double threshold, double max_false_negative_rate, double max_false_positive_rate) {
+
+        this.num_bands = num_bands;
+        this.band_size = band_size;
+        this.false_positive_rate = falsePositiveRate(threshold, num_bands, band_size);
+        this.false_negative_rate = falseNegativeRate(threshold, num_bands, band_size);
+        this.bytes_per_item = bytesPerItem(num_bands, band_size);
+        this.meets_targets = false_negative_rate <= max_false_negative_rate && false_positive_rate <= max_false_positive_rate;
+    }
+
+    /**
+     * Chooses the number of bands and rows per band. Of the combinations within the memory budget that meet both target
+     * rates, the one with the smallest signature is chosen, since it is the cheapest to compute and store. If none
+     * meets both, the one that comes closest, relative to the targets, is chosen and meets_targets is false.
+     *
+     * @param threshold               the Jaccard similarity above which pairs should be found
+     * @param max_false_negative_rate the maximum proportion of pairs above the threshold that may be missed
+     * @param max_false_positive_rate the maximum proportion of pairs below the threshold that may be candidates
+     * @param max_bytes_per_item      the memory budget per item indexed
+     * @return the parameters chosen
+     */
+    public static MinHashParameters choose(double threshold, double max_false_negative_rate, double max_false_positive_rate, int max_bytes_per_item) {
+
+        if (threshold <= 0.0 || threshold >= 1.0) {
+            throw new IllegalArgumentException("threshold must be between 0 and 1: " + threshold);
+        }
+        if (bytesPerItem(1, 1) > max_bytes_per_item) {
+            throw new IllegalArgumentException("memory budget too small: " + max_bytes_per_item);
+        }
+
+        MinHashParameters best = null;
+        double best_excess = Double.MAX_VALUE;
+
+        for (int band_size = 1; band_size <= MAX_SIGNATURE_SIZE; band_size++) {
+            for (int num_bands = 1; num_bands * band_size <= MAX_SIGNATURE_SIZE && bytesPerItem(num_bands, band_size) <= max_bytes_per_item; num_bands++) {
+
+                MinHashParameters candidate = new MinHashParameters(num_bands, band_size, threshold, max_false_negative_rate, max_false_positive_rate);
+                double excess = Math.max(candidate.false_negative_rate / max_false_negative_rate, candidate.false_positive_rate / max_false_positive_rate);
+
+                if (best == null || better(candidate, excess, best, best_excess)) {
+                    best = candidate;
+                    best_excess = excess;
+                }
+            }
+        }
+        return best;
+    }
+
+    public static double candidateProbability(double similarity, int num_bands, int band_size) {
+
+        return 1.0 - Math.pow(1.0 - Math.pow(similarity, band_size), num_bands);
+    }
+
+    public String toString() {
+        return String.format("bands: %d rows: %d false positive rate: %.4f false negative rate: %.4f bytes per item: %d%s",
+                num_bands, band_size, false_positive_rate, false_negative_rate, bytes_per_item, meets_targets ? "" : " (targets not met)");
+    }
+
+    //-------------------------------------------------------------
+
+    private static boolean better(MinHashParameters candidate, double candidate_excess, MinHashParameters best, double best_excess) {
+
+        if (candidate.meets_targets != best.meets_targets) {
+            return candidate.meets_targets;
+        }
+        if (!candidate.meets_targets) {
+            return candidate_excess < best_excess;
+        }
+
+        int candidate_size = candidate.num_bands * candidate.band_size;
+        int best_size = best.num_bands * best.band_size;
+
+        return candidate_size < best_size || (candidate_size == best_size &&
+                candidate.false_positive_rate + candidate.false_negative_rate < best.false_positive_rate + best.false_negative_rate);
+    }
+
+    private static int bytesPerItem(int num_bands, int band_size) {
+
+        return 4 * num_bands * band_size + 4 * num_bands;
+    }
+
+    private static double falsePositiveRate(double threshold, int num_bands, int band_size) {
+
+        return integrate(0.0, threshold, num_bands, band_size) / threshold;
+    }
+
+    private static double falseNegativeRate(double threshold, int num_bands, int band_size) {
+
+        return 1.0 - integrate(threshold, 1.0, num_bands, band_size) / (1.0 - threshold);
+    }
+
+    /**
+     * @return the integral of the candidate probability between the limits, by Simpson's rule
+     */
+    private static double integrate(double from, double to, int num_bands, int band_size) {
+
+        double step = (to - from) / INTEGRATION_STEPS;
+        double sum = candidateProbability(from, num_bands, band_size) + candidateProbability(to, num_bands, band_size);
+
+        for (int i = 1; i < INTEGRATION_STEPS; i++) {
+            sum += (i % 2 == 0 ? 2 : 4) * candidateProbability(from + i * step, num_bands, band_size);
+        }
+        return sum * step / 3;
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.lsh;
+
+import uk.ac.standrews.cs.utilities.ChannelWriter;
+import uk.ac.standrews.cs.utilities.Codec;
+import uk.ac.standrews.cs.utilities.MappedArray;
+import uk.ac.standrews.cs.utilities.MappedObjectList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+
+/**
+ * Reads and writes MinHash indices.
+ * <p>
+ * The file format is:
+ * <pre>
+ *     header:           magic, version, shingle_size, num_bands, band_size, weighted (1 or 0), number_of_items, the
+ *                       offsets of the sections below, and the log generation
+ *     items:            the encoded items, followed by number_of_items + 1 longs giving the offset of each
+ *     signatures:       the signature of each item, as signature_size ints
+ *     band tables:      for each band: its keys (longs) in increasing order, number_of_keys + 1 ints giving the offset
+ *                       in the band's postings at which each key's ids start, and the ids (ints)
+ *     band directory:   for each band: the offset of its table (long) and its number of keys and postings (ints)
+ * </pre>
+ * Opening a file maps it into memory, so that the band tables, signatures and items are read directly from the mapped
+ * file, and the operating system page cache shares the mapped file between all the processes on a host that open it.
+ * The signatures and band tables are mapped in chunks of at most 2GB, the most that a single mapping can hold.
+ * <p>
+ * Items put into an opened index are also appended to a log alongside the file, each record holding the key and the
+ * encoded item, and the log is replayed when the file is next opened. Merging writes a new file including the logged
+ * items, replaces the old one, and empties the log. Only one process should add to an index at a time.
+ * <p>
+ * Each file is given a new random log generation when it is written, which is also written at the start of its log.
+ * A log whose generation does not match the file's, such as one left behind by a failure after a merge replaced the
+ * file but before the log was emptied, records items already in the file or in an earlier file, and is discarded
+ * rather than replayed.
+ */
+class MinHashStorage {
+
+    private static final int MAGIC = 0x4d4e4831; // "MNH1"
+    private static final int VERSION = 4;
+    private static final int HEADER_SIZE = 7 * 4 + 5 * 8;
+    private static final int LOG_HEADER_SIZE = 8;
+    private static final int DIRECTORY_ENTRY_SIZE = 8 + 4 + 4;
+    private static final String LOG_SUFFIX = ".log";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * Writes the index to a temporary file alongside the path, which then atomically replaces any existing file, so
+     * that an index opened from the path, and still mapped from it, is unaffected.
+     */
+    static <Data> void save(MinHash<Data> minhash, Path path, Codec<Data> codec) throws IOException {
+
+        save(minhash, path, codec, newGeneration());
+    }
+
+    private static <Data> void save(MinHash<Data> minhash, Path path, Codec<Data> codec, long log_generation) throws IOException {
+
+        if (minhash.packed_signatures != null) {
+            throw new IllegalStateException("an index with packed signatures cannot be saved");
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(minhash, channel, codec, log_generation);
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static <Data> void write(MinHash<Data> minhash, FileChannel channel, Codec<Data> codec, long log_generation) throws IOException {
+
+        ChannelWriter writer = new ChannelWriter(channel, HEADER_SIZE);
+        int num_bands = minhash.band_indices.length;
+
+        long items_offset = writer.position();
+        long item_index_offset = MappedObjectList.write(writer, minhash.items, codec);
+
+        long signatures_offset = writer.position();
+        for (int[] signature : minhash.signatures) {
+            for (int value : signature) {
+                writer.putInt(value);
+            }
+        }
+
+        long[] table_offsets = new long[num_bands];
+        int[] numbers_of_keys = new int[num_bands];
+        int[] numbers_of_postings = new int[num_bands];
+
+        for (int band_number = 0; band_number < num_bands; band_number++) {
+
+            BandIndex band_index = minhash.band_indices[band_number];
+            long[] keys = band_index.sortedKeys();
+
+            table_offsets[band_number] = writer.position();
+            numbers_of_keys[band_number] = keys.length;
+
+            for (long key : keys) {
+                writer.putLong(key);
+            }
+            int offset = 0;
+            writer.putInt(offset);
+            for (long key : keys) {
+                offset += band_index.postings(key).length;
+                writer.putInt(offset);
+            }
+            for (long key : keys) {
+                for (int id : band_index.postings(key)) {
+                    writer.putInt(id);
+                }
+            }
+            numbers_of_postings[band_number] = offset;
+        }
+
+        long directory_offset = writer.position();
+
+        for (int band_number = 0; band_number < num_bands; band_number++) {
+            writer.putLong(table_offsets[band_number]);
+            writer.putInt(numbers_of_keys[band_number]);
+            writer.putInt(numbers_of_postings[band_number]);
+        }
+        writer.flush();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(minhash.shingle_size).putInt(num_bands).putInt(minhash.band_size);
+        header.putInt(minhash.weighted_generator != null ? 1 : 0);
+        header.putInt(minhash.items.size());
+        header.putLong(items_offset).putLong(item_index_offset).putLong(signatures_offset).putLong(directory_offset);
+        header.putLong(log_generation);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    static <Data> MinHash<Data> open(Path path, Codec<Data> codec) throws IOException {
+
+        MinHash<Data> minhash;
+        long log_generation;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a MinHash index: " + path);
+            }
+            int shingle_size = header.getInt();
+            int num_bands = header.getInt();
+            int band_size = header.getInt();
+            boolean weighted = header.getInt() != 0;
+            int number_of_items = header.getInt();
+            long items_offset = header.getLong();
+            long item_index_offset = header.getLong();
+            long signatures_offset = header.getLong();
+            long directory_offset = header.getLong();
+            log_generation = header.getLong();
+
+            int signature_size = num_bands * band_size;
+
+            MappedObjectList<Data> items = new MappedObjectList<>(channel, items_offset, item_index_offset, number_of_items, codec);
+            MappedSignatureList signatures = new MappedSignatureList(
+                    new MappedArray(channel, signatures_offset, (long) number_of_items * signature_size, 4, signature_size), number_of_items, signature_size);
+
+            ByteBuffer directory = ChannelWriter.map(channel, directory_offset, (long) num_bands * DIRECTORY_ENTRY_SIZE);
+            BandIndex[] band_indices = new BandIndex[num_bands];
+
+            for (int band_number = 0; band_number < num_bands; band_number++) {
+
+                long table_offset = directory.getLong();
+                int number_of_keys = directory.getInt();
+                int number_of_postings = directory.getInt();
+
+                long keys_size = 8L * number_of_keys;
+                long offsets_size = 4L * (number_of_keys + 1);
+
+                MappedArray keys = new MappedArray(channel, table_offset, number_of_keys, 8, 1);
+                MappedArray offsets = new MappedArray(channel, table_offset + keys_size, number_of_keys + 1L, 4, 1);
+                MappedArray postings = new MappedArray(channel, table_offset + keys_size + offsets_size, number_of_postings, 4, 1);
+
+                band_indices[band_number] = new BandIndex(keys, offsets, postings);
+            }
+
+            minhash = new MinHash<>(shingle_size, band_size, weighted, band_indices, items, signatures);
+        }
+
+        replayLog(logPath(path), log_generation, codec, minhash::put);
+        minhash.setLog(new AppendLog<>(logPath(path), log_generation, codec), path, codec);
+
+        return minhash;
+    }
+
+    /**
+     * Writes the index, including any items in the log, to a new file which then replaces the original, and empties the log.
+     */
+    static <Data> void merge(MinHash<Data> minhash, Path path, Codec<Data> codec, AppendLog<Data> log) throws IOException {
+
+        long log_generation = newGeneration();
+        save(minhash, path, codec, log_generation);
+        log.clear(log_generation);
+    }
+
+    //-------------------------------------------------------------
+
+    private static Path logPath(Path path) {
+        return path.resolveSibling(path.getFileName() + LOG_SUFFIX);
+    }
+
+    private static long newGeneration() {
+        return ThreadLocalRandom.current().nextLong();
+    }
+
+    /**
+     * Applies the action to each complete record in the log, if it belongs to the given generation of the file, and
+     * truncates any incomplete record left by a failure while appending.
+     */
+    private static <Data> void replayLog(Path log_path, long log_generation, Codec<Data> codec, BiConsumer<String, Data> action) throws IOException {
+
+        if (!Files.exists(log_path)) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(log_path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            Long generation = readGeneration(channel);
+            if (generation == null || generation != log_generation) {
+                return;
+            }
+
+            ByteBuffer log = ChannelWriter.map(channel, 0, channel.size());
+            log.position(LOG_HEADER_SIZE);
+            List<String> keys = new ArrayList<>();
+            List<Data> items = new ArrayList<>();
+            int complete = LOG_HEADER_SIZE;
+
+            while (true) {
+                byte[] key = readRecordPart(log);
+                byte[] item = key == null ? null : readRecordPart(log);
+                if (item == null) {
+                    break;
+                }
+                keys.add(new String(key, StandardCharsets.UTF_8));
+                items.add(codec.decode(item));
+                complete = log.position();
+            }
+            if (complete < channel.size()) {
+                channel.truncate(complete);
+            }
+
+            for (int index = 0; index < keys.size(); index++) {
+                action.accept(keys.get(index), items.get(index));
+            }
+        }
+    }
+
+    /**
+     * @return the generation at the start of the log, or null if it is too short to hold one
+     */
+    private static Long readGeneration(FileChannel channel) throws IOException {
+
+        if (channel.size() < LOG_HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                return null;
+            }
+        }
+        header.flip();
+        return header.getLong();
+    }
+
+    private static byte[] readRecordPart(ByteBuffer log) {
+
+        if (log.remaining() < 4) {
+            return null;
+        }
+        int length = log.getInt();
+        if (length < 0 || log.remaining() < length) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        log.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * The log of items put into an opened index.
+     */
+    static class AppendLog<Data> {
+
+        private final FileChannel channel;
+        private final Codec<Data> codec;
+        private ChannelWriter writer;
+
+        /**
+         * Opens the log for appending, emptying it first unless it belongs to the given generation of the file.
+         */
+        AppendLog(Path path, long log_generation, Codec<Data> codec) throws IOException {
+
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.codec = codec;
+
+            Long generation = readGeneration(channel);
+            if (generation != null && generation == log_generation) {
+                writer = new ChannelWriter(channel, channel.size());
+            } else {
+                clear(log_generation);
+            }
+        }
+
+        void append(String key, Data item) throws IOException {
+
+            byte[] key_bytes = key.getBytes(StandardCharsets.UTF_8);
+            byte[] item_bytes = codec.encode(item);
+
+            writer.putInt(key_bytes.length);
+            writer.putBytes(key_bytes);
+            writer.putInt(item_bytes.length);
+            writer.putBytes(item_bytes);
+        }
+
+        void flush() throws IOException {
+            writer.flush();
+        }
+
+        /**
+         * Empties the log and starts it again for the given generation of the file.
+         */
+        void clear(long log_generation) throws IOException {
+
+            if (writer != null) {
+                writer.flush();
+            }
+            channel.truncate(0);
+            writer = new ChannelWriter(channel, 0);
+            writer.putLong(log_generation);
+            writer.flush();
+        }
+
+        void close() throws IOException {
+
+            writer.flush();
+            channel.close();
+        }
+    }
+
+    /**
+     * The signatures held in a mapped file, each decoded into an array when requested. Signatures added after the file
+     * was opened are held on the heap.
+     */
+    private static class MappedSignatureList extends AbstractList<int[]> {
+
+        private final MappedArray signatures;
+        private final int mapped_size;
+        private final int signature_size;
+        private final List<int[]> added = new ArrayList<>();
+
+        MappedSignatureList(MappedArray signatures, int size, int signature_size) {
+
+            this.signatures = signatures;
+            this.mapped_size = size;
+            this.signature_size = signature_size;
+        }
+
+        @Override
+        public int[] get(int index) {
+
+            if (index >= mapped_size) {
+                return added.get(index - mapped_size);
+            }
+            if (index < 0) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+
+            int[] signature = new int[signature_size];
+            signatures.getInts((long) index * signature_size, signature);
+            return signature;
+        }
+
+        @Override
+        public boolean add(int[] signature) {
+            return added.add(signature);
+        }
+
+        @Override
+        public int size() {
+            return mapped_size + added.size();
+        }
+    }
+}
@@ -17,8 +17,6 @@
 package uk.ac.standrews.cs.utilities.lsh;
 
 import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
 
 /**
  * A class used to hold the structure of a MinHash data structure for analysis purposes.
@@ -31,6 +29,10 @@ public class MinHashStructure {
     public final int signature_size;
     public final int band_size;
     public final int number_of_keys;
+    public final boolean weighted;
+    public final int signature_bits;             // the number of bits stored of each signature value
+    public final int number_of_items;
+    public final long number_of_postings;
 
 
     public HashMap<Integer,Integer> list_distribution = new HashMap<>(); // Used by showStructure to record posting list size distributions
@@ -40,22 +42,31 @@ public class MinHashStructure {
         shingle_size = mh.shingle_size;
         signature_size = mh.signature_size;
         band_size = mh.band_size;
+        weighted = mh.weighted_generator != null;
+        signature_bits = mh.packed_signatures != null ? mh.packed_signatures.getBits() : 32;
 
-        HashMap<Band, Set<T>> entries = mh.lsh_map;
+        int keys = 0;
+        long postings = 0;
 
-        this.number_of_keys = entries.keySet().size();
+        for( BandIndex band_index : mh.band_indices ) {
 
-        for( Map.Entry<Band, Set<T>> entry : entries.entrySet() ) {
+            keys += band_index.numberOfKeys();
+            postings += band_index.numberOfPostings();
 
-            int number_of_entries = entry.getValue().size();
+            for( int number_of_entries : band_index.listSizes() ) {
 
-            Integer count = list_distribution.get(number_of_entries);
-            if( count == null ) {
-                list_distribution.put(number_of_entries,1);
-            } else {
-                list_distribution.put(number_of_entries,count + 1 );
+                Integer count = list_distribution.get(number_of_entries);
+                if( count == null ) {
+                    list_distribution.put(number_of_entries,1);
+                } else {
+                    list_distribution.put(number_of_entries,count + 1 );
+                }
             }
         }
+
+        this.number_of_keys = keys;
+        this.number_of_items = mh.items.size();
+        this.number_of_postings = postings;
     }
 
     
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.lsh;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates minhash signatures of strings, from the hashes of their ngrams (shingles).
+ * The seeds of the hash functions are drawn once, and the ngrams are hashed directly from the characters of the
+ * string without creating substrings; each ngram's hash is the same as the hashCode of the corresponding substring.
+ * The value of an ngram in each position is that hash xored with the position's seed and then mixed by the finaliser
+ * of MurmurHash3, without which the ordering of the ngrams would barely change between positions and the similarities
+ * estimated would be biased.
+ * Instances are immutable and may be shared between threads.
+ */
+public class SignatureGenerator {
+
+    private final static int someprime = 1190699; // this is a fine prime to use from https://primes.utm.edu/lists/small/small2.html
+    private final static int bigprime = 2147483647; // the biggest 32 bit prime integer?
+    private final static int anotherprime = 16777619;
+
+    final static long NO_RUNNER_UP = Long.MAX_VALUE;
+
+    private final int signature_size;
+    private final int shingle_size;
+    private final int[] hash_seeds;   // the seed xored with the ngram's hash in each position, before mixing.
+
+    /**
+     * @param signature_size the number of hash functions, and hence the size of the signatures generated
+     * @param shingle_size   the length of the ngrams hashed
+     */
+    public SignatureGenerator(int signature_size, int shingle_size) {
+
+        this.signature_size = signature_size;
+        this.shingle_size = shingle_size;
+
+        hash_seeds = new int[signature_size];
+        Random seeds = new Random(someprime); // a deterministic feed of random numbers - use the same hashes every each time
+
+        for (int index = 0; index < signature_size; index++) {
+
+            int hash = bigprime * anotherprime ^ seeds.nextInt();
+            hash = hash * anotherprime ^ seeds.nextInt();
+            hash_seeds[index] = hash * anotherprime;
+        }
+    }
+
+    public int getSignatureSize() {
+        return signature_size;
+    }
+
+    /**
+     * Creates a minhash signature for the source string
+     * @param src the string from which a minhash signature will be created
+     * @return the minhash signature
+     */
+    public int[] signature(String src) {
+
+        int[] signature = new int[signature_size];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+
+        char[] chars = src.toCharArray();
+
+        for (int start = 0; start + shingle_size <= chars.length; start++) { // for each of the ngrams...
+
+            final int ngram_hash = ngramHash(chars, start);
+
+            for (int index = 0; index < signature_size; index++) { // do the hashing for each of the hash functions
+                signature[index] = Math.min(signature[index], mix(hash_seeds[index] ^ ngram_hash));
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * Creates a minhash signature for the source string, also recording the second smallest hash for each position,
+     * which is the value that position would take if the minimising ngram were absent.
+     * @param src        the string from which a minhash signature will be created
+     * @param runners_up an array of size signature_size to hold the second smallest hashes, or Long.MAX_VALUE where
+     *                   there is none
+     * @return the minhash signature
+     */
+    public int[] signature(String src, long[] runners_up) {
+
+        int[] signature = new int[signature_size];
+        Arrays.fill(signature, Integer.MAX_VALUE);
+        Arrays.fill(runners_up, NO_RUNNER_UP);
+
+        boolean[] set = new boolean[signature_size];
+        char[] chars = src.toCharArray();
+
+        for (int start = 0; start + shingle_size <= chars.length; start++) {
+
+            final int ngram_hash = ngramHash(chars, start);
+
+            for (int index = 0; index < signature_size; index++) {
+
+                int hash = mix(hash_seeds[index] ^ ngram_hash);
+
+                if (!set[index] || hash < signature[index]) {
+                    if (set[index]) {
+                        runners_up[index] = signature[index];
+                    }
+                    signature[index] = hash;
+                    set[index] = true;
+
+                } else if (hash != signature[index] && hash < runners_up[index]) {
+                    runners_up[index] = hash;
+                }
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * The 32 bit finaliser of MurmurHash3, a bijection in which each bit of the input affects every bit of the output.
+     */
+    private static int mix(int hash) {
+
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        return hash ^ (hash >>> 16);
+    }
+
+    private int ngramHash(char[] chars, int start) {
+
+        int hash = 0;
+        for (int i = start; i < start + shingle_size; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.lsh;
+
+import uk.ac.standrews.cs.utilities.measures.implementation.FeatureVector;
+import uk.ac.standrews.cs.utilities.measures.implementation.KeyFreqPair;
+
+import java.util.Arrays;
+
+/**
+ * Generates weighted minhash signatures of strings, taking account of how often each ngram occurs, by improved
+ * consistent weighted sampling (Ioffe, ICDM 2010).
+ * <p>
+ * The probability that two signatures agree in a position is the weighted Jaccard similarity of the ngram frequencies,
+ * the sum over the ngrams of the smaller frequency divided by the sum of the larger, so the proportion of positions in
+ * which they agree estimates it. The random variables for each ngram and position are derived from the ngram's hash,
+ * so that every string uses the same samples.
+ * Instances are immutable and may be shared between threads.
+ */
+public class WeightedSignatureGenerator {
+
+    private final static long someprime = 1190699;
+
+    private final int signature_size;
+    private final int shingle_size;
+
+    /**
+     * @param signature_size the size of the signatures generated
+     * @param shingle_size   the length of the ngrams
+     */
+    public WeightedSignatureGenerator(int signature_size, int shingle_size) {
+
+        this.signature_size = signature_size;
+        this.shingle_size = shingle_size;
+    }
+
+    public int getSignatureSize() {
+        return signature_size;
+    }
+
+    /**
+     * @return the weighted minhash signature of the ngrams of the string
+     */
+    public int[] signature(String src) {
+
+        return signature(new FeatureVector(src, shingle_size));
+    }
+
+    /**
+     * @return the weighted minhash signature of the frequencies in the feature vector
+     */
+    public int[] signature(FeatureVector features) {
+
+        int[] signature = new int[signature_size];
+        double[] minimum = new double[signature_size];
+        Arrays.fill(minimum, Double.MAX_VALUE);
+
+        for (KeyFreqPair feature : features.getFeatures()) {
+
+            int ngram_hash = feature.qgram.hashCode();
+            double log_weight = Math.log(feature.frequency);
+
+            for (int index = 0; index < signature_size; index++) {
+
+                long state = mix(someprime * (index + 1) ^ ((long) ngram_hash << 32));
+
+                double r = -Math.log(uniform(state = mix(state)) * uniform(state = mix(state)));   // Gamma(2, 1)
+                double c = -Math.log(uniform(state = mix(state)) * uniform(state = mix(state)));   // Gamma(2, 1)
+                double beta = uniform(mix(state));                                                // Uniform(0, 1)
+
+                double t = Math.floor(log_weight / r + beta);
+                double a = Math.log(c) - r * (t - beta) - r;                                      // the log of c / (y * e^r)
+
+                if (a < minimum[index]) {
+                    minimum[index] = a;
+                    signature[index] = (int) mix(((long) ngram_hash << 32) | ((long) t & 0xffffffffL));   // the sample is the pair (ngram, t).
+                }
+            }
+        }
+        return signature;
+    }
+
+    /**
+     * @return the estimated weighted Jaccard similarity between two signatures
+     */
+    public static double estimateSimilarity(int[] signature1, int[] signature2) {
+
+        int equal = 0;
+        for (int index = 0; index < signature1.length; index++) {
+            if (signature1[index] == signature2[index]) {
+                equal++;
+            }
+        }
+        return (double) equal / signature1.length;
+    }
+
+    //-------------------------------------------------------------
+
+    private static long mix(long state) {
+
+        // the SplitMix64 generator, advanced and finalised in one step.
+        long z = state + 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return a double in (0, 1] derived from the top 53 bits of the state
+     */
+    private static double uniform(long state) {
+        return ((state >>> 11) + 1) * 0x1.0p-53;
+    }
+}
@@ -165,7 +165,8 @@ public class MTree<T> {
 
             count_leaf_comparisons++;
 
-            final double distanceNodeToQ = distance_wrapper.distance(N.data, query);
+            // only whether the leaf is in range matters, so the measure may give up once it is not.
+            final double distanceNodeToQ = distance_wrapper.distanceBounded(N.data, query, RQ + EPSILON);
             if (distanceNodeToQ - RQ <= EPSILON) {
                 results.add(new DataDistance<>(N.data, distanceNodeToQ));
             }
@@ -182,7 +183,7 @@ public class MTree<T> {
 
                 if (Math.abs(distanceNodeToQ - distanceChildToParent) - RQ - child.radius < EPSILON) {  // only look at the children if the query is inside the ball.
 
-                    final double distanceChildToQ = distance_wrapper.distance(child.data, query);
+                    final double distanceChildToQ = distance_wrapper.distanceBounded(child.data, query, RQ + child.radius + EPSILON);
 
                     if (distanceChildToQ - RQ - child.radius < EPSILON) {
                         count_depth++;
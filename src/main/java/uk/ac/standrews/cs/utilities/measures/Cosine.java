@@ -18,9 +18,12 @@ package uk.ac.standrews.cs.utilities.measures;
 
 import uk.ac.standrews.cs.utilities.measures.coreConcepts.StringMeasure;
 import uk.ac.standrews.cs.utilities.measures.implementation.FeatureVector;
+import uk.ac.standrews.cs.utilities.measures.implementation.KeyFreqPair;
 import uk.ac.standrews.cs.utilities.measures.implementation.QgramDistribution;
 import uk.ac.standrews.cs.utilities.measures.implementation.SparseDistribution;
 
+import java.util.Iterator;
+
 public class Cosine extends StringMeasure {
 
     @Override
@@ -37,11 +40,27 @@ public class Cosine extends StringMeasure {
         return distance(new SparseDistribution(topAndTail(clean(x))), new SparseDistribution(topAndTail(clean(y))));
     }
 
+    /**
+     * Computes the distance from the frequencies and magnitudes held by the vectors, looking up the features of the
+     * smaller vector in the larger.
+     */
     public double distance(final FeatureVector x, final FeatureVector y) {
 
-        return distance(new SparseDistribution(x), new SparseDistribution(y));
+        final FeatureVector smaller = x.size() <= y.size() ? x : y;
+        final FeatureVector larger = smaller == x ? y : x;
+
+        double dot_product = 0.0d;
+
+        for (KeyFreqPair pair : smaller.getFeatures()) {
+            dot_product += (double) pair.frequency * larger.getFrequency(pair.qgram);
+        }
+
+        return angularDistance(dot_product / (x.getMagnitude() * y.getMagnitude()));
     }
 
+    /**
+     * Computes the distance by a merge join of the distributions, whose entries are in key order.
+     */
     private double distance(final SparseDistribution x, final SparseDistribution y) {
 
         x.convertToProbabilityBased();
@@ -49,16 +68,31 @@ public class Cosine extends StringMeasure {
 
         double dot_product = 0.0d;
 
-        for (QgramDistribution qgram : x) {
+        Iterator<QgramDistribution> x_entries = x.iterator();
+        Iterator<QgramDistribution> y_entries = y.iterator();
+        QgramDistribution x_entry = x_entries.hasNext() ? x_entries.next() : null;
+        QgramDistribution y_entry = y_entries.hasNext() ? y_entries.next() : null;
 
-            QgramDistribution qi = y.getEntry(qgram.key);
+        while (x_entry != null && y_entry != null) {
 
-            if (qi != null) {
-                dot_product += qgram.count * qi.count;
+            final int compare = x_entry.key.compareTo(y_entry.key);
+
+            if (compare <= 0) {
+                if (compare == 0) {
+                    dot_product += x_entry.count * y_entry.count;
+                }
+                x_entry = x_entries.hasNext() ? x_entries.next() : null;
+            }
+            if (compare >= 0) {
+                y_entry = y_entries.hasNext() ? y_entries.next() : null;
             }
         }
 
-        final double cosine_similarity = dot_product / (x.magnitude() * y.magnitude());
+        return angularDistance(dot_product / (x.magnitude() * y.magnitude()));
+    }
+
+    private static double angularDistance(final double cosine_similarity) {
+
         final double angular_distance = 2.0 * Math.acos(Math.min(cosine_similarity, 1d)) / Math.PI; // Truncate at 1.0 in case of rounding error.
 
         if (Double.isNaN(angular_distance)) {
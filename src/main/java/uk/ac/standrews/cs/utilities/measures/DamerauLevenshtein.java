@@ -42,6 +42,7 @@ package uk.ac.standrews.cs.utilities.measures;
  */
 import uk.ac.standrews.cs.utilities.measures.coreConcepts.StringMeasure;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -79,6 +80,9 @@ import java.util.Map;
  */
 public class DamerauLevenshtein extends StringMeasure {
 
+    // The value of the cells outside the band of the table that can be within the bound.
+    private static final int OUT_OF_BAND = Integer.MAX_VALUE / 2;
+
     private final int deleteCost, insertCost, replaceCost, swapCost;
 
     /**
@@ -117,6 +121,16 @@ public class DamerauLevenshtein extends StringMeasure {
      */
     @Override
     public double calculateDistance(final String x, final String y) {
+        return calculateDistanceBounded(x, y, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Compute the distance over a diagonal band of the table, since every
+     * edit, including a swap, that moves between diagonals inserts or deletes
+     * a character for each diagonal moved.
+     */
+    @Override
+    protected double calculateDistanceBounded(final String x, final String y, final double bound) {
 
         final String cleanX = clean(x);
         final String cleanY = clean(y);
@@ -124,6 +138,16 @@ public class DamerauLevenshtein extends StringMeasure {
         if (cleanX.isEmpty()) return cleanY.length();
         if (cleanY.isEmpty()) return cleanY.length();
 
+        final int maxLength = Math.max(cleanX.length(), cleanY.length());
+        final int indelCost = Math.min(insertCost, deleteCost);
+
+        final double lengthDifferenceCost = (double) Math.abs(cleanX.length() - cleanY.length()) * indelCost;
+        if (lengthDifferenceCost > bound) {
+            return lengthDifferenceCost;
+        }
+
+        final int band = indelCost > 0 && bound / indelCost < maxLength ? (int) (bound / indelCost) + 1 : maxLength;
+
         final int[][] table = new int[cleanX.length()][cleanY.length()];
         final Map<Character, Integer> sourceIndexByCharacter = new HashMap<>();
 
@@ -153,7 +177,19 @@ public class DamerauLevenshtein extends StringMeasure {
 
             int maxSourceLetterMatchIndex = cleanX.charAt(i) == cleanY.charAt(0) ? 0 : -1;
 
-            for (int j = 1; j < cleanY.length(); j++) {
+            final int first = Math.max(1, i - band);
+            final int last = Math.min(cleanY.length() - 1, i + band);
+            if (band < maxLength) {
+                Arrays.fill(table[i], 1, cleanY.length(), OUT_OF_BAND);
+            }
+
+            for (int j = 1; j < first; j++) {
+                if (cleanX.charAt(i) == cleanY.charAt(j)) {
+                    maxSourceLetterMatchIndex = j;
+                }
+            }
+
+            for (int j = first; j <= last; j++) {
 
                 Integer candidateSwapIndex = sourceIndexByCharacter.get(cleanY.charAt(j));
                 final int jSwap = maxSourceLetterMatchIndex;
@@ -178,7 +214,7 @@ public class DamerauLevenshtein extends StringMeasure {
                         preSwapCost = table[Math.max(0, iSwap - 1)][Math.max(0, jSwap - 1)];
                     }
 
-                    swapDistance = preSwapCost + (i - iSwap - 1) * deleteCost + (j - jSwap - 1) * insertCost + swapCost;
+                    swapDistance = preSwapCost >= OUT_OF_BAND ? Integer.MAX_VALUE : preSwapCost + (i - iSwap - 1) * deleteCost + (j - jSwap - 1) * insertCost + swapCost;
                 } else {
                     swapDistance = Integer.MAX_VALUE;
                 }
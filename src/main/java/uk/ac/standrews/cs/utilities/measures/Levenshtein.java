@@ -18,13 +18,33 @@ package uk.ac.standrews.cs.utilities.measures;
 
 import uk.ac.standrews.cs.utilities.measures.coreConcepts.StringMeasure;
 
+import java.util.Arrays;
+
+/**
+ * Levenshtein distance with configurable costs. With unit costs the distance is calculated by the bit-parallel algorithm
+ * of Myers, as formulated by Hyyrö, which computes 64 cells of a column of the table at a time as bit vectors of the
+ * differences between vertically adjacent cells; patterns longer than 64 characters are divided into blocks of 64 rows,
+ * with the horizontal difference at the bottom of each block carried into the next. Since each remaining column of the
+ * text can reduce the distance by at most one, the calculation stops once the bottom row less the number of remaining
+ * columns exceeds the bound. Other costs use the dynamic programming table.
+ */
 public final class Levenshtein extends StringMeasure {
 
     public static final double DEFAULT_INSERT_DELETE_COST = 1.0;
     public static final double DEFAULT_SUBSTITUTE_COST = 1.0;
 
+    private static final int WORD_SIZE = 64;
+    private static final long HIGH_BIT = 1L << (WORD_SIZE - 1);
+
+    // The number of characters for which the equality masks of the pattern are looked up rather than computed.
+    private static final int TABLE_CHARACTERS = 256;
+
+    // The equality masks of the current pattern by block and character, kept by each thread and zeroed after use.
+    private static final ThreadLocal<long[]> PATTERN_MASKS = ThreadLocal.withInitial(() -> new long[TABLE_CHARACTERS]);
+
     private final double insertDeleteCost;
     private final double substituteCost;
+    private final boolean unitCosts;
 
     public Levenshtein() {
         this(DEFAULT_INSERT_DELETE_COST, DEFAULT_SUBSTITUTE_COST);
@@ -34,6 +54,7 @@ public final class Levenshtein extends StringMeasure {
 
         this.insertDeleteCost = insertDeleteCost;
         this.substituteCost = substituteCost;
+        unitCosts = insertDeleteCost == 1.0 && substituteCost == 1.0;
     }
 
     @Override
@@ -46,27 +67,65 @@ public final class Levenshtein extends StringMeasure {
 
     @Override
     public double calculateDistance(final String x, final String y) {
+        return calculateDistanceBounded(x, y, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * With other than unit costs, calculates the distance over a diagonal band of the table, since a path to the cell
+     * for the first i characters of x and the first j of y makes at least |i - j| insertions or deletions, and stops
+     * once every cell of a row, which every path crosses, exceeds the bound.
+     */
+    @Override
+    protected double calculateDistanceBounded(final String x, final String y, final double bound) {
 
         final String cleanX = clean(x);
         final String cleanY = clean(y);
 
         final int lengthX = cleanX.length();
         final int lengthY = cleanY.length();
+        final int maxLength = Math.max(lengthX, lengthY);
+
+        final double lengthDifferenceCost = Math.abs(lengthX - lengthY) * insertDeleteCost;
+        if (lengthDifferenceCost > bound) {
+            return lengthDifferenceCost;
+        }
+
+        if (unitCosts) {
+            return unitCostDistance(cleanX, cleanY, bound);
+        }
+
+        final int band = insertDeleteCost > 0.0 && bound / insertDeleteCost < maxLength ? (int) (bound / insertDeleteCost) + 1 : maxLength;
 
         double[] v0 = new double[lengthY + 1];
         double[] v1 = new double[lengthY + 1];
 
-        for (int i = 0; i < v0.length; ++i) {
-            v0[i] = (double) i * insertDeleteCost;
+        for (int j = 0; j < v0.length; ++j) {
+            v0[j] = j <= band ? (double) j * insertDeleteCost : Double.POSITIVE_INFINITY;
         }
 
-        for (int i = 0; i < lengthX; ++i) {
-            v1[0] = (double) (i + 1) * insertDeleteCost;
+        for (int i = 1; i <= lengthX; ++i) {
+
+            final int first = Math.max(1, i - band);
+            final int last = Math.min(lengthY, i + band);
+            final char charX = cleanX.charAt(i - 1);
+
+            // the cells either side of the band are never within the bound.
+            v1[first - 1] = first == 1 && i <= band ? (double) i * insertDeleteCost : Double.POSITIVE_INFINITY;
+            if (last < lengthY) {
+                v1[last + 1] = Double.POSITIVE_INFINITY;
+            }
+
+            double rowMinimum = v1[first - 1];
+
+            for (int j = first; j <= last; ++j) {
+                v1[j] = min(v1[j - 1] + insertDeleteCost,
+                        v0[j] + insertDeleteCost,
+                        v0[j - 1] + (charX == cleanY.charAt(j - 1) ? 0.0 : substituteCost));
+                rowMinimum = Math.min(rowMinimum, v1[j]);
+            }
 
-            for (int j = 0; j < lengthY; ++j) {
-                v1[j + 1] = min(v1[j] + insertDeleteCost,
-                        v0[j + 1] + insertDeleteCost,
-                        v0[j] + (cleanX.charAt(i) == cleanY.charAt(j) ? 0.0 : substituteCost));
+            if (rowMinimum > bound) {
+                return rowMinimum;
             }
 
             final double[] swap = v0;
@@ -77,6 +136,159 @@ public final class Levenshtein extends StringMeasure {
         return v0[lengthY];
     }
 
+    private static int unitCostDistance(final String x, final String y, final double bound) {
+
+        final boolean xShorter = x.length() <= y.length();
+        final String pattern = xShorter ? x : y;
+        final String text = xShorter ? y : x;
+
+        final int patternLength = pattern.length();
+        if (patternLength == 0) {
+            return text.length();
+        }
+
+        final int blocks = (patternLength + WORD_SIZE - 1) / WORD_SIZE;
+
+        long[] masks = PATTERN_MASKS.get();
+        if (masks.length < blocks * TABLE_CHARACTERS) {
+            masks = new long[blocks * TABLE_CHARACTERS];
+            PATTERN_MASKS.set(masks);
+        }
+
+        for (int i = 0; i < patternLength; i++) {
+            final char c = pattern.charAt(i);
+            if (c < TABLE_CHARACTERS) {
+                masks[(i / WORD_SIZE) * TABLE_CHARACTERS + c] |= 1L << i;
+            }
+        }
+
+        try {
+            return blocks == 1 ? singleWordDistance(pattern, text, masks, bound) : blockDistance(pattern, text, masks, blocks, bound);
+
+        } finally {
+            for (int i = 0; i < patternLength; i++) {
+                final char c = pattern.charAt(i);
+                if (c < TABLE_CHARACTERS) {
+                    masks[(i / WORD_SIZE) * TABLE_CHARACTERS + c] = 0L;
+                }
+            }
+        }
+    }
+
+    private static int singleWordDistance(final String pattern, final String text, final long[] masks, final double bound) {
+
+        final long lastRow = 1L << (pattern.length() - 1);
+
+        long positiveVertical = -1L;   // the rows at which each cell is one more than the cell above, initially all.
+        long negativeVertical = 0L;    // the rows at which each cell is one less than the cell above.
+        int score = pattern.length();
+
+        for (int j = 0; j < text.length(); j++) {
+
+            final long equal = equalityMask(pattern, masks, 0, text.charAt(j));
+            final long verticalChange = equal | negativeVertical;
+            final long horizontalChange = (((equal & positiveVertical) + positiveVertical) ^ positiveVertical) | equal;
+
+            long positiveHorizontal = negativeVertical | ~(horizontalChange | positiveVertical);
+            long negativeHorizontal = positiveVertical & horizontalChange;
+
+            if ((positiveHorizontal & lastRow) != 0) {
+                score++;
+            } else if ((negativeHorizontal & lastRow) != 0) {
+                score--;
+            }
+
+            final int lowerBound = score - (text.length() - j - 1);
+            if (lowerBound > bound) {
+                return lowerBound;
+            }
+
+            // the first row of the table increases by one in each column.
+            positiveHorizontal = (positiveHorizontal << 1) | 1L;
+            negativeHorizontal <<= 1;
+
+            positiveVertical = negativeHorizontal | ~(verticalChange | positiveHorizontal);
+            negativeVertical = positiveHorizontal & verticalChange;
+        }
+
+        return score;
+    }
+
+    private static int blockDistance(final String pattern, final String text, final long[] masks, final int blocks, final double bound) {
+
+        final long lastRow = 1L << ((pattern.length() - 1) % WORD_SIZE);
+
+        final long[] positiveVertical = new long[blocks];
+        final long[] negativeVertical = new long[blocks];
+        Arrays.fill(positiveVertical, -1L);
+        int score = pattern.length();
+
+        for (int j = 0; j < text.length(); j++) {
+
+            final char c = text.charAt(j);
+            int carry = 1;   // the horizontal difference in the row above the block.
+
+            for (int block = 0; block < blocks; block++) {
+
+                final long pv = positiveVertical[block];
+                final long mv = negativeVertical[block];
+
+                long equal = equalityMask(pattern, masks, block, c);
+                final long verticalChange = equal | mv;
+                if (carry < 0) {
+                    equal |= 1L;
+                }
+                final long horizontalChange = (((equal & pv) + pv) ^ pv) | equal;
+
+                long positiveHorizontal = mv | ~(horizontalChange | pv);
+                long negativeHorizontal = pv & horizontalChange;
+
+                final long bottomRow = block == blocks - 1 ? lastRow : HIGH_BIT;
+                final int carryOut = (positiveHorizontal & bottomRow) != 0 ? 1 : (negativeHorizontal & bottomRow) != 0 ? -1 : 0;
+
+                positiveHorizontal <<= 1;
+                negativeHorizontal <<= 1;
+                if (carry > 0) {
+                    positiveHorizontal |= 1L;
+                } else if (carry < 0) {
+                    negativeHorizontal |= 1L;
+                }
+
+                positiveVertical[block] = negativeHorizontal | ~(verticalChange | positiveHorizontal);
+                negativeVertical[block] = positiveHorizontal & verticalChange;
+                carry = carryOut;
+            }
+
+            score += carry;
+
+            final int lowerBound = score - (text.length() - j - 1);
+            if (lowerBound > bound) {
+                return lowerBound;
+            }
+        }
+
+        return score;
+    }
+
+    /**
+     * @return the rows of the block of the pattern at which the character occurs
+     */
+    private static long equalityMask(final String pattern, final long[] masks, final int block, final char c) {
+
+        if (c < TABLE_CHARACTERS) {
+            return masks[block * TABLE_CHARACTERS + c];
+        }
+
+        long mask = 0L;
+        final int end = Math.min(pattern.length(), (block + 1) * WORD_SIZE);
+        for (int i = block * WORD_SIZE; i < end; i++) {
+            if (pattern.charAt(i) == c) {
+                mask |= 1L << i;
+            }
+        }
+        return mask;
+    }
+
     public String toString() {
         return "Levenshtein [insertDelete=" + insertDeleteCost + ", substitute=" + substituteCost + "]";
     }
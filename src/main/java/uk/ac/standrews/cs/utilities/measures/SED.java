@@ -28,6 +28,7 @@ public class SED extends SparseProbabilityMeasure {
 
     private static final int DEFAULT_CHAR_VAL_UPPER_BOUND = 512;
     private static final double MAX_DISTANCE = 1.0;
+    private static final double EXPONENT = 0.486; // TODO magic number
 
     public SED() {
         this(DEFAULT_CHAR_VAL_UPPER_BOUND);
@@ -47,13 +48,21 @@ public class SED extends SparseProbabilityMeasure {
 
     @Override
     public double calculateDistance(final String x, final String y) {
+        return calculateDistanceBounded(x, y, Double.POSITIVE_INFINITY);
+    }
+
+    @Override
+    protected double calculateDistanceBounded(final String x, final String y, final double bound) {
         final String cleanX = clean(x);
         final String cleanY = clean(y);
 
         if (cleanX.isEmpty() || cleanY.isEmpty()) return MAX_DISTANCE;
 
-        final double k = doCalc(stringToSparseArray(cleanX, char_val_upper_bound), stringToSparseArray(cleanY, char_val_upper_bound));
-        return Math.pow(Math.pow(2, Math.max(0, k)) - 1, 0.486); // TODO magic number
+        // the distance increases with the divergence, so the bound can be inverted into a bound on the divergence.
+        final double maxDivergence = bound < 0 ? 0 : Math.log(Math.pow(bound, 1 / EXPONENT) + 1) / Math.log(2);
+
+        final double k = doCalc(stringToSparseArray(cleanX, char_val_upper_bound), stringToSparseArray(cleanY, char_val_upper_bound), maxDivergence);
+        return Math.pow(Math.pow(2, Math.max(0, k)) - 1, EXPONENT);
     }
 
     public static void main(String[] a) {
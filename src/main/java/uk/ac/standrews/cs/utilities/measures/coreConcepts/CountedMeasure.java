@@ -34,6 +34,13 @@ public class CountedMeasure<T> extends Measure<T> {
 		return m.distance(x, y);
 	}
 
+	@Override
+	protected double calculateDistanceBounded(T x, T y, double bound) {
+
+		count++;
+		return m.distanceBounded(x, y, bound);
+	}
+
 	@Override
 	public String getMeasureName() {
 		return m.getMeasureName();
@@ -45,6 +45,33 @@ public abstract class Measure<T> {
         return calculateDistance(x, y);
     }
 
+    /**
+     * Calculates the distance between two points when it is at most a bound, or otherwise any value greater than the
+     * bound, which measures may return as soon as the bound is known to be exceeded. Indexes that only need to know
+     * whether a distance is within some bound call this rather than {@link #distance(Object, Object)}.
+     *
+     * @param x the first point
+     * @param y the second point
+     * @param bound the bound
+     * @return the distance between the points if it is at most the bound, or a value greater than the bound
+     */
+    public double distanceBounded(T x, T y, double bound) {
+
+        if (x.equals(y)) {
+            return 0.0;
+        }
+
+        return calculateDistanceBounded(x, y, bound);
+    }
+
+    /**
+     * Calculates the distance, or any value greater than the bound once the distance is known to exceed it. Measures
+     * that can abandon their calculation early override this; by default the full distance is calculated.
+     */
+    protected double calculateDistanceBounded(T x, T y, double bound) {
+        return calculateDistance(x, y);
+    }
+
     /**
      * @param distance - the distance to be normalised
      * @return the distance in the range 0-1:  1 - ( 1 / d + 1 )
@@ -41,7 +41,7 @@ public abstract class StringMeasure extends Measure<String> {
     }
 
     protected static String clean(String s) {
-        return s.replaceAll("\uFFFD", "");
+        return s.indexOf('\uFFFD') < 0 ? s : s.replace("\uFFFD", "");
     }
 
     /**
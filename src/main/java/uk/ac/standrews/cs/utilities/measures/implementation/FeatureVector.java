@@ -26,6 +26,7 @@ public class FeatureVector {
 
     private List<KeyFreqPair> state = new Vector<>();
     private HashMap<String,KeyFreqPair> frequencies = new HashMap<>();
+    private final double magnitude;
 
     public FeatureVector(String document, int shingle_size) {
 
@@ -41,6 +42,12 @@ public class FeatureVector {
 
         state.addAll(frequencies.values());
         Collections.sort(state);
+
+        double sum_of_squares = 0.0;
+        for (KeyFreqPair pair : state) {
+            sum_of_squares += (double) pair.frequency * pair.frequency;
+        }
+        magnitude = Math.sqrt(sum_of_squares);
     }
 
     public List<KeyFreqPair> getFeatures() {
@@ -51,6 +58,17 @@ public class FeatureVector {
         return state.iterator();
     }
 
+    /**
+     * @return the Euclidean norm of the frequencies, computed once on construction
+     */
+    public double getMagnitude() {
+        return magnitude;
+    }
+
+    public int size() {
+        return state.size();
+    }
+
     public int getFrequency(String qgram) {
 
         KeyFreqPair p = frequencies.get(qgram);
@@ -25,6 +25,9 @@ public abstract class SparseProbabilityMeasure extends StringMeasure {
 
     private static final double LOG_TWO = Math.log(2);
 
+    // Allows for rounding in the probabilities not yet visited, so that calculations are not abandoned wrongly.
+    private static final double ABANDON_MARGIN = 1e-12;
+
     private static Map<String, SparseProbabilityArray> memoTable = new ConcurrentHashMap<>();
 
     protected static SparseProbabilityArray stringToSparseArray(String s, int CHAR_VAL_UPPER_BOUND) {
@@ -66,6 +69,15 @@ public abstract class SparseProbabilityMeasure extends StringMeasure {
     }
 
     protected static double doCalc(SparseProbabilityArray ar1, SparseProbabilityArray ar2) {
+        return doCalc(ar1, ar2, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Calculates the divergence of the two arrays, or a lower bound on it greater than maxDivergence once it is known
+     * to exceed it. Each shared event adds at most ln 2 times the sum of its two probabilities to the similarity, so the
+     * similarity is at most its current value plus ln 2 times the probability not yet visited in both arrays.
+     */
+    protected static double doCalc(SparseProbabilityArray ar1, SparseProbabilityArray ar2, double maxDivergence) {
 
         int ar1Ptr = 0;
         int ar2Ptr = 0;
@@ -74,17 +86,22 @@ public abstract class SparseProbabilityMeasure extends StringMeasure {
 
         boolean finished = false;
         double simAcc = 0;
+        double remaining = 2;   // the probability not yet visited in both arrays.
 
         while (!finished) {
 
             if (ar1Event == ar2Event) {
                 simAcc += hCalc(ar1.finalProbs[ar1Ptr], ar2.finalProbs[ar2Ptr]);
-                ar1Ptr++;
-                ar2Ptr++;
+                remaining -= ar1.finalProbs[ar1Ptr++] + ar2.finalProbs[ar2Ptr++];
             } else if (ar1Event < ar2Event) {
-                ar1Ptr++;
+                remaining -= ar1.finalProbs[ar1Ptr++];
             } else {
-                ar2Ptr++;
+                remaining -= ar2.finalProbs[ar2Ptr++];
+            }
+
+            final double minDivergence = 1 - ((simAcc + remaining * LOG_TWO) / LOG_TWO) / 2;
+            if (minDivergence > maxDivergence + ABANDON_MARGIN) {
+                return minDivergence;
             }
 
             if (ar1Ptr == ar1.finalEvents.length) {
@@ -19,121 +19,224 @@ package uk.ac.standrews.cs.utilities.mi_file;
 import uk.ac.standrews.cs.utilities.measures.coreConcepts.DataDistance;
 import uk.ac.standrews.cs.utilities.measures.coreConcepts.Measure;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
+ * Accumulates the spearman footrule scores of the objects found in the posting lists during a query and keeps the best k.
+ * The accumulated scores are held in an open addressing table keyed by object id, and the best k candidates in a
+ * bounded max-heap ordered by (score, object id), so that ties are broken deterministically.
+ *
  * Created by al on 11/10/2017.
  */
 public class CandidateSet<T> {
 
-    private final int maxEntries;
-    private final TreeMap<Double, T> orderedRes;         //here we maintain the k current best using the distance as entry
-    private final HashMap<T, Double> objectsOfOrderedRes; //here we maintain the k current best using the data as entry
-    private final T query;                              // the object for which we are finding NN.
+    private static final int INITIAL_TABLE_SIZE = 64;    // must be a power of two
+    private static final int EMPTY = -1;                 // marks an unused slot in the table
+    private static final int PRUNED = Integer.MAX_VALUE; // score of an object that can no longer enter the best k
+
+    private final int maxEntries;                        // the score penalty for a reference object missing from an object's representation
+    private final T query;                               // the object for which we are finding NN.
     private final Measure<T> distance_wrapper;
-    private int k;                                      // number of objects to be retrieved
+    private final List<T> objects;                       // maps from object ids to objects
+    private final int k;                                 // number of objects to be retrieved
 
-    private double kDist = Double.MAX_VALUE;
+    private int[] table_ids;                             // open addressing table from object id to accumulated score
+    private int[] table_scores;
+    private int[] table_heap_positions;                  // position of each object in the heap, or -1 if not in the heap
+    private int table_size;
 
-    private HashMap<T, Double> tempResults = new HashMap<>(); // Temporary results?
+    private final int[] heap_slots;                      // the table slots of the k current best, as a max-heap on (score, id)
+    private int heap_size;
 
-    public CandidateSet(T query, Measure<T> distance_wrapper, int maxEntries, int k) {
+    public CandidateSet(T query, Measure<T> distance_wrapper, List<T> objects, int maxEntries, int k) {
 
         this.query = query;
         this.distance_wrapper = distance_wrapper;
+        this.objects = objects;
         this.maxEntries = maxEntries;
         this.k = k;
-        orderedRes = new TreeMap<Double, T>();
-        objectsOfOrderedRes = new HashMap<T, Double>();
-        tempResults = new HashMap<>();
+
+        table_ids = new int[INITIAL_TABLE_SIZE];
+        table_scores = new int[INITIAL_TABLE_SIZE];
+        table_heap_positions = new int[INITIAL_TABLE_SIZE];
+        Arrays.fill(table_ids, EMPTY);
+        table_size = 0;
+
+        heap_slots = new int[Math.max(k, 0)];
+        heap_size = 0;
     }
 
-    public void put(T object, int score, int position, T pivot, int postingListToBeAccessed, int accessedPostingLists) {
+    public void put(int id, int score, int position, int postingListToBeAccessed, int accessedPostingLists) {
 
         int increment = Math.abs(position - score); //the "spearman footrule" distance is the sum of the position differences
 
-        double currentScore;
+        int slot = findSlot(id);
+        int currentScore;
 
-        Double i = tempResults.get(object);
-        if (i != null) {
-            currentScore = i - maxEntries + increment;
-            i = currentScore;
+        if (table_ids[slot] == id) {
+            if (table_scores[slot] == PRUNED) {
+                return;
+            }
+            currentScore = table_scores[slot] - maxEntries + increment;
         } else {
-            currentScore = maxEntries * (postingListToBeAccessed - 1) + increment; /* all ints? */
+            currentScore = maxEntries * (postingListToBeAccessed - 1) + increment; // assume it is missing from all the other lists.
+            slot = insertSlot(slot, id);
         }
 
-        double minDist = currentScore - maxEntries * (postingListToBeAccessed - accessedPostingLists); // the minimum distance this object can reach
+        int minDist = currentScore - maxEntries * (postingListToBeAccessed - accessedPostingLists); // the minimum distance this object can reach
 
-        if (minDist > kDist) {
-            tempResults.remove(object);
-        } else {                       //the object can enter the best k. Let's insert it
-            if (i == null) {
-                i = currentScore;
-                tempResults.put(object, i);   //insert in the full result list
-            }
-            orderedInsert(object, currentScore);  //insert in the best current k
+        if (heap_size == k && k > 0 && minDist > table_scores[heap_slots[0]] && table_heap_positions[slot] == -1) {
+            table_scores[slot] = PRUNED;
+        } else {
+            table_scores[slot] = currentScore;
+            orderedInsert(slot);
         }
     }
 
     public List<DataDistance<T>> getDataDistances() {
-        List<DataDistance<T>> result = new ArrayList<>();
 
-        for (Map.Entry<Double, T> entry : orderedRes.entrySet()) {
-            result.add(new DataDistance<>(entry.getValue(), distance_wrapper.distance(entry.getValue(), query)));
+        int[] best = Arrays.copyOf(heap_slots, heap_size);
+        for (int i = 0; i < best.length; i++) {
+            for (int j = i; j > 0 && greater(best[j - 1], best[j]); j--) {
+                int swap = best[j];
+                best[j] = best[j - 1];
+                best[j - 1] = swap;
+            }
+        }
 
+        List<DataDistance<T>> result = new ArrayList<>();
+        for (int slot : best) {
+            T value = objects.get(table_ids[slot]);
+            result.add(new DataDistance<>(value, distance_wrapper.distance(value, query)));
         }
         return result;
     }
 
     //-------------------------------------------------------------
 
-    private void orderedInsert(T object, double dist) {
-        double rdist = 0;
-
-        if (orderedRes.size() < k) { // the list is not full - we can do the insert.
-
-            Double d = eliminateDuplicateObjects(object);  // if it is already in objectsOfOrderedRes we remove it
-            if (d != null) {                            // it was in the above collection - so remove it from the other data structure
-                eliminateDuplicateMetrics(d);
-            } // next do the insertion in the lists
-            while (object != null) { // loop is necessary because could be two objects at same distance. We are using the TreeMap in a sorted way - hack.
-                dist += rdist;
-                d = dist;
-                objectsOfOrderedRes.put(object, d);           // might do multiple inserts but this is safe - they will overwrite each other in the map.
-                object = orderedRes.put(d, object);           //there could be another object with the same distance: we have to reinsert it
-                rdist += 0.0001 * Math.random();               // Hack to insert two objects at (almost) the same distance.
-                // if there  was an object at this distance already go around the loop again.
+    private void orderedInsert(int slot) {
+
+        int heap_position = table_heap_positions[slot];
+
+        if (heap_position != -1) {                    // already one of the k current best - its score has changed.
+            siftUp(heap_position);
+            siftDown(table_heap_positions[slot]);
+
+        } else if (heap_size < k) {                   // the heap is not full - we can do the insert.
+            heap_slots[heap_size] = slot;
+            table_heap_positions[slot] = heap_size;
+            siftUp(heap_size++);
+
+        } else if (k > 0 && greater(heap_slots[0], slot)) {  // better than the worst of the current best - replace it.
+            table_heap_positions[heap_slots[0]] = -1;
+            heap_slots[0] = slot;
+            table_heap_positions[slot] = 0;
+            siftDown(0);
+        }
+    }
+
+    private boolean greater(int slot1, int slot2) {
+
+        int score1 = table_scores[slot1];
+        int score2 = table_scores[slot2];
+        return score1 > score2 || (score1 == score2 && table_ids[slot1] > table_ids[slot2]);
+    }
+
+    private void siftUp(int position) {
+
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (!greater(heap_slots[position], heap_slots[parent])) {
+                return;
             }
-            kDist = orderedRes.lastKey();
-        } else if (dist < kDist) {
+            swap(position, parent);
+            position = parent;
+        }
+    }
 
-            Double d = eliminateDuplicateObjects(object);  // if it is already in objectsOfOrderedRes we remove it
-            if (d != null) {                            // it was in the above collection - so remove it from the other data structure
-                eliminateDuplicateMetrics(d);
+    private void siftDown(int position) {
+
+        while (true) {
+            int largest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < heap_size && greater(heap_slots[left], heap_slots[largest])) {
+                largest = left;
+            }
+            if (right < heap_size && greater(heap_slots[right], heap_slots[largest])) {
+                largest = right;
             }
-            if (orderedRes.size() >= k) {
-                T to = orderedRes.remove(orderedRes.lastKey());
-                objectsOfOrderedRes.remove(to);
+            if (largest == position) {
+                return;
             }
-            while (object != null) { // loop is necessary because could be two objects at same distance. We are using the TreeMap in a sorted way - hack.
+            swap(position, largest);
+            position = largest;
+        }
+    }
 
-                dist += rdist;
-                d = dist;
-                objectsOfOrderedRes.put(object, d);
-                object = orderedRes.put(d, object);        //there could be another object with the same distance: we have to reinsert it
-                rdist += 0.0001 * Math.random();            // Hack as above.
+    private void swap(int position1, int position2) {
 
-            }
-            kDist = orderedRes.lastKey();
+        int slot1 = heap_slots[position1];
+        int slot2 = heap_slots[position2];
+        heap_slots[position1] = slot2;
+        heap_slots[position2] = slot1;
+        table_heap_positions[slot1] = position2;
+        table_heap_positions[slot2] = position1;
+    }
+
+    /**
+     * @return the slot holding id, or the empty slot at which it should be inserted
+     */
+    private int findSlot(int id) {
+
+        int mask = table_ids.length - 1;
+        int slot = mix(id) & mask;
+        while (table_ids[slot] != EMPTY && table_ids[slot] != id) {
+            slot = (slot + 1) & mask;
         }
+        return slot;
     }
 
-    private Double eliminateDuplicateObjects(T object) {
-        return objectsOfOrderedRes.remove(object);
+    private int insertSlot(int slot, int id) {
+
+        if (2 * (table_size + 1) > table_ids.length) {
+            resize();
+            slot = findSlot(id);
+        }
+        table_ids[slot] = id;
+        table_heap_positions[slot] = -1;
+        table_size++;
+        return slot;
+    }
+
+    private void resize() {
+
+        int[] old_ids = table_ids;
+        int[] old_scores = table_scores;
+        int[] old_heap_positions = table_heap_positions;
+
+        table_ids = new int[old_ids.length * 2];
+        table_scores = new int[old_ids.length * 2];
+        table_heap_positions = new int[old_ids.length * 2];
+        Arrays.fill(table_ids, EMPTY);
+
+        for (int old_slot = 0; old_slot < old_ids.length; old_slot++) {
+            if (old_ids[old_slot] != EMPTY) {
+                int slot = findSlot(old_ids[old_slot]);
+                table_ids[slot] = old_ids[old_slot];
+                table_scores[slot] = old_scores[old_slot];
+                table_heap_positions[slot] = old_heap_positions[old_slot];
+                if (old_heap_positions[old_slot] != -1) {
+                    heap_slots[old_heap_positions[old_slot]] = slot;
+                }
+            }
+        }
     }
 
-    //if object o is already one of the k current best, we eliminate it
-    private T eliminateDuplicateMetrics(double d) {
-        return orderedRes.remove(d);
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 }
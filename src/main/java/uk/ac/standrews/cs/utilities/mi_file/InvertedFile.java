@@ -16,44 +16,144 @@
  */
 package uk.ac.standrews.cs.utilities.mi_file;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /**
+ * An inverted file with one posting list per reference object; reference objects and data objects are addressed by index.
+ * Insertions are not synchronized: there should be a single writer, and no queries while writing. Queries may run
+ * concurrently with each other.
+ *
  * Created by al on 11/10/2017.
  */
-public class InvertedFile<T> {
+public class InvertedFile {
 
     final private int maxScore;     // the highest score you can get in a posting list (equal to no. ref objects).
-    private Map<T, PostingList<T>> map = new HashMap<>();
+    private final PostingList[] lists;
 
     /**
      * @param maxScore - the number of reference objects
      */
     public InvertedFile(int maxScore) {
         this.maxScore = maxScore;
+        lists = new PostingList[maxScore];
     }
 
-    public synchronized void insert(T key, T data, int score) {
+    /**
+     * Creates an inverted file over existing posting lists, such as those read from a file.
+     */
+    InvertedFile(int maxScore, PostingList[] lists) {
+        this.maxScore = maxScore;
+        this.lists = lists;
+    }
 
-        if (score < 0 || score > maxScore) {
-            throw new RuntimeException("Score associated to the entry being inserted must be in the interval " + 0 + ".." + maxScore);
+    public void insert(int reference_index, int id, int score) {
+
+        checkScore(score);
+        getOrCreatePostingList(reference_index).add(id, score);
+    }
+
+    /**
+     * Inserts the entries for a batch of objects with consecutive ids.
+     * The entries are first bucketed by reference object in score order; each bucket is then merged into its posting
+     * list in parallel. Each posting list is only touched by a single task, so no locking is required.
+     *
+     * @param first_id     the id of the first object in the batch
+     * @param permutations the indices of the nearest reference objects of each object in the batch, nearest first;
+     *                     the score of a reference object is its position in the permutation
+     */
+    public void insertAll(int first_id, int[][] permutations) {
+
+        int[] bucket_offsets = new int[lists.length + 1];
+
+        int max_length = 0;
+        for (int[] permutation : permutations) {
+            checkScore(permutation.length - 1);
+            max_length = Math.max(max_length, permutation.length);
+            for (int reference_index : permutation) {
+                bucket_offsets[reference_index + 1]++;
+            }
+        }
+        for (int reference_index = 0; reference_index < lists.length; reference_index++) {
+            bucket_offsets[reference_index + 1] += bucket_offsets[reference_index];
+            if (bucket_offsets[reference_index + 1] > bucket_offsets[reference_index]) {
+                getOrCreatePostingList(reference_index);
+            }
         }
 
-        PostingListEntry<T> ple = new PostingListEntry<>(data, score);
-        PostingList<T> list = map.get(key);
-        if (list == null) {
-            list = new PostingList<>();
-            map.put(key, list);
+        int[] batch_ids = new int[bucket_offsets[lists.length]];
+        short[] batch_scores = new short[batch_ids.length];
+        int[] next = Arrays.copyOf(bucket_offsets, lists.length);
+
+        for (int score = 0; score < max_length; score++) {            // visiting scores in order leaves each bucket sorted by score.
+            for (int index = 0; index < permutations.length; index++) {
+                if (score < permutations[index].length) {
+                    int position = next[permutations[index][score]]++;
+                    batch_ids[position] = first_id + index;
+                    batch_scores[position] = (short) score;
+                }
+            }
         }
-        list.add(ple);
+
+        IntStream.range(0, lists.length).parallel().forEach(reference_index -> {
+            if (bucket_offsets[reference_index + 1] > bucket_offsets[reference_index]) {
+                lists[reference_index].addSorted(batch_ids, batch_scores, bucket_offsets[reference_index], bucket_offsets[reference_index + 1]);
+            }
+        });
     }
 
-    public PostingList<T> getPostingList(T pivot, int from, int to) {
-        PostingList<T> list = map.get(pivot);
+    /**
+     * Positions a cursor over the entries of a posting list with scores in the range from..to inclusive.
+     *
+     * @param reference_index the index of the reference object whose posting list is to be scanned
+     * @param from            the lowest score of interest
+     * @param to              the highest score of interest
+     * @param cursor          the cursor to be positioned; it is left empty if the reference object has no posting list
+     */
+    public void getPostingList(int reference_index, int from, int to, PostingListCursor cursor) {
+        PostingList list = lists[reference_index];
         if (list != null) {
-            list = list.getSubRange(from, to);
+            list.getRange(from, to, cursor);
+        } else {
+            cursor.clear();
+        }
+    }
+
+    private void checkScore(int score) {
+
+        if (score < 0 || score > maxScore) {
+            throw new RuntimeException("Score associated to the entry being inserted must be in the interval " + 0 + ".." + maxScore);
+        }
+    }
+
+    private PostingList getOrCreatePostingList(int reference_index) {
+
+        PostingList list = lists[reference_index];
+        if (list == null) {
+            list = new PostingList(maxScore);
+            lists[reference_index] = list;
         }
         return list;
     }
+
+    /**
+     * @param reference_index the index of a reference object
+     * @return the number of entries in the posting list of that reference object, or -1 if it has no posting list
+     */
+    public int getPostingListSize(int reference_index) {
+        PostingList list = lists[reference_index];
+        return list == null ? -1 : list.size();
+    }
+
+    PostingList getPostingList(int reference_index) {
+        return lists[reference_index];
+    }
+
+    int getMaxScore() {
+        return maxScore;
+    }
+
+    public int numberOfPostingLists() {
+        return lists.length;
+    }
 }
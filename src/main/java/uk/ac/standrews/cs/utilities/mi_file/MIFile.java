@@ -16,10 +16,14 @@
  */
 package uk.ac.standrews.cs.utilities.mi_file;
 
+import uk.ac.standrews.cs.utilities.Codec;
 import uk.ac.standrews.cs.utilities.measures.coreConcepts.DataDistance;
 import uk.ac.standrews.cs.utilities.measures.coreConcepts.Measure;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.stream.IntStream;
 
 /**
  * Text from Giuseppe Amato:
@@ -44,10 +48,11 @@ public class MIFile<T> {
 
     final Measure<T> distance_wrapper;
     final int n_ro;         // number of reference objects - AMATO
-    private final Set<T> reference_objects;
-    private final InvertedFile<T> invFile;
+    private final List<T> reference_objects; // reference objects are addressed by their index in this list
+    final InvertedFile invFile;
+    final List<T> objects;  // the data, addressed by the ids held in the posting lists
+    private final NearestReferenceObjects<T> nearest_reference_objects;
     protected int number_of_items;    // Keep a note of how many items are in the data set
-    HashMap<T, PostingList<T>> inverted_index = new HashMap<>();
     int ks;                 //number of nearest pivots used when searching - AMATO
     int ki;                 //number of nearest pivots used when indexing  - AMATO
     int max_pos_diff;       //consider just objects with at most max_pos_diff with respect to the query - AMATO
@@ -61,7 +66,7 @@ public class MIFile<T> {
     public MIFile(Measure<T> d, Set<T> reference_objects, int ki, int ks) throws Exception {
 
         distance_wrapper = d;
-        this.reference_objects = reference_objects;
+        this.reference_objects = new ArrayList<>(reference_objects);
         n_ro = reference_objects.size();
         if (ki >= n_ro) {
             throw new Exception("Illegal number of reference objects - Ki (" + ki + ") must be smaller than number of reference objects (" + n_ro + ")");
@@ -69,10 +74,70 @@ public class MIFile<T> {
         this.ki = ki;
         this.ks = ks;
         this.max_pos_diff = ki;
-        invFile = new InvertedFile<T>(n_ro);
+        invFile = new InvertedFile(n_ro);
+        objects = new ArrayList<>();
+        nearest_reference_objects = new NearestReferenceObjects<>(this.reference_objects, d);
         number_of_items = 0;
     }
 
+    /**
+     * Creates an MI-File over an existing index, such as one read from a file.
+     */
+    MIFile(Measure<T> d, List<T> reference_objects, InvertedFile invFile, List<T> objects, int ki, int ks, int max_pos_diff) {
+
+        distance_wrapper = d;
+        this.reference_objects = reference_objects;
+        n_ro = reference_objects.size();
+        this.ki = ki;
+        this.ks = ks;
+        this.max_pos_diff = max_pos_diff;
+        this.invFile = invFile;
+        this.objects = objects;
+        nearest_reference_objects = new NearestReferenceObjects<>(reference_objects, d);
+        number_of_items = objects.size();
+    }
+
+    /**
+     * Sets whether the distances from each query or inserted object to the reference objects are computed in parallel.
+     * This is worthwhile for expensive measures, such as string edit distances over hundreds of reference objects.
+     * The measure must be safe to call from several threads at once.
+     *
+     * @param parallel true if the distances should be computed in parallel
+     */
+    public void setParallelReferenceDistances(boolean parallel) {
+
+        nearest_reference_objects.setParallel(parallel);
+    }
+
+    /**
+     * Opens an MI-File previously written by save().
+     * The file is memory mapped, so opening is fast regardless of the size of the index and the mapped pages are
+     * shared by all the processes on a host that open the same file. Objects may still be added to the opened index;
+     * the posting lists they modify are then copied onto the heap.
+     *
+     * @param path  the file to be opened
+     * @param d     the measure used when the index was created
+     * @param codec the codec used when the index was saved
+     * @return the MI-File
+     * @throws IOException if the file cannot be read or is not an MI-File
+     */
+    public static <T> MIFile<T> open(Path path, Measure<T> d, Codec<T> codec) throws IOException {
+
+        return MIFileStorage.open(path, d, codec);
+    }
+
+    /**
+     * Writes the index to a file from which it can be opened by open().
+     *
+     * @param path  the file to be written
+     * @param codec used to encode the reference objects and the data
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path path, Codec<T> codec) throws IOException {
+
+        MIFileStorage.save(this, path, codec);
+    }
+
     /**
      * Insert an object in the index, during the bulk loading procedure.
      * <p>
@@ -91,16 +156,40 @@ public class MIFile<T> {
      */
     public void add(T data) throws Exception {
 
-        TreeMap<Double, T> knp = kNearestReferenceObjects(data, ki);
+        int[] knp = kNearestReferenceObjects(data, ki);
 
-        int score = 0; // the position of each of the pivots (reference objects).
+        int id = objects.size();
+        objects.add(data);
 
-        for (Map.Entry<Double, T> e : knp.entrySet()) {
-            invFile.insert(e.getValue(), data, score++);
+        for (int score = 0; score < knp.length; score++) { // the score is the position of each of the pivots (reference objects).
+            invFile.insert(knp[score], id, score);
         }
         number_of_items++;
     }
 
+    /**
+     * Insert a collection of objects in the index.
+     * <p>
+     * The nearest reference objects of each object are computed in parallel, and the resulting entries are then merged
+     * into the posting lists in batches sorted by score, one posting list per task. This is much faster than calling
+     * add() for each object. The measure must be safe to call from several threads at once.
+     *
+     * @param data the objects to be inserted.
+     */
+    public void addAll(Collection<T> data) {
+
+        List<T> items = new ArrayList<>(data);
+
+        int[][] permutations = new int[items.size()][];
+        IntStream.range(0, items.size()).parallel().forEach(index -> permutations[index] = kNearestReferenceObjects(items.get(index), ki));
+
+        int first_id = objects.size();
+        objects.addAll(items);
+
+        invFile.insertAll(first_id, permutations);
+        number_of_items += items.size();
+    }
+
     /**
      * Find the closest N nodes to @param query.
      *
@@ -110,7 +199,7 @@ public class MIFile<T> {
      */
     public List<DataDistance<T>> nearestN(T query, int n) {
 
-        TreeMap<Double, T> query_k_nearest_reference_objects = kNearestReferenceObjects(query, ks);
+        int[] query_k_nearest_reference_objects = kNearestReferenceObjects(query, ks);
 
         return incrementalkNNSearch(query, query_k_nearest_reference_objects, n);
     }
@@ -159,66 +248,41 @@ public class MIFile<T> {
      *
      * @param object the object to be represented by ordering of reference objects.
      * @param k      the number of reference objects used to represent other objects.
-     * @return the ordered list of reference objects that represent the object
+     * @return the ordered list of indices of the reference objects that represent the object
      * <p>
      * Signature of method from Amato - code adapted slightly from Giuseppe's version.
      */
-    private TreeMap<Double, T> kNearestReferenceObjects(T object, int k) {   // was called kNearestReferenceObjectsSequential in  Giuseppe's version.
-        TreeMap<Double, T> result = new TreeMap<>(); // maps from distance to an object
+    private int[] kNearestReferenceObjects(T object, int k) {   // was called kNearestReferenceObjectsSequential in  Giuseppe's version.
 
-        for (T reference : reference_objects) {
-
-            double dist = distance_wrapper.distance(object, reference);
-
-            T o = reference;
-
-            if (result.size() < k) {
-                while (o != null) {
-
-                    o = result.put(dist, o);  // problem is that there may be two objects at this distance so insert may overwrite old -
-                    dist += 0.0001f;                     // so increment the distance a little and reinsert the overwritten entry to the map
-                }
-            } else if (dist < result.lastKey()) {
-
-                while (o != null) {
-
-                    o = result.put(dist, o);  // See comment above that explains (!) this code
-                    dist += 0.0001f;
-                }
-                result.remove(result.lastKey());  // get rid of the previous highest value (before this addition.
-            }
-        }
-        return result;
+        return nearest_reference_objects.nearest(object, k);
     }
 
-    private List<DataDistance<T>> incrementalkNNSearch(T query, TreeMap<Double, T> query_k_nearest_reference_objects, int k) {
+    private List<DataDistance<T>> incrementalkNNSearch(T query, int[] query_k_nearest_reference_objects, int k) {
 
-        CandidateSet<T> candidateSet = new CandidateSet<>(query, distance_wrapper, ki + 1, k);
+        CandidateSet<T> candidateSet = new CandidateSet<>(query, distance_wrapper, objects, ki + 1, k);
+        PostingListCursor cursor = new PostingListCursor();
 
-        Iterator<Map.Entry<Double, T>> q_iter = query_k_nearest_reference_objects.entrySet().iterator();
+        for (int position = 0; position < query_k_nearest_reference_objects.length; position++) { // for each RO in order
 
-        for (int position = 0; q_iter.hasNext(); position++) { // for each RO in order
-            Map.Entry<Double, T> nextRO = q_iter.next();
-            T pivot = nextRO.getValue();                        // the data of the reference object
+            int pivot_index = query_k_nearest_reference_objects[position]; // the index of the reference object
 
             int low_inv_file_pos = position - max_pos_diff; // was Math.min( 0, position - max_pos_diff ) in als version!
             int high_inv_file_pos = Math.min(position + max_pos_diff, ki);  //With ki upper bound
 
-            PostingList<T> posting_list_of_current_pivot = invFile.getPostingList(pivot, low_inv_file_pos, high_inv_file_pos);
+            invFile.getPostingList(pivot_index, low_inv_file_pos, high_inv_file_pos, cursor);
 
-            if (posting_list_of_current_pivot != null) {
-                for (PostingListEntry<T> data_in_posting_list : posting_list_of_current_pivot.getEntries()) {
-                    T object = data_in_posting_list.getObject();
-                    int score = data_in_posting_list.getScore();
-                    candidateSet.put(object, score, position, pivot, query_k_nearest_reference_objects.size(), position + 1);
-                }
+            while (cursor.next()) {
+                candidateSet.put(cursor.getId(), cursor.getScore(), position, query_k_nearest_reference_objects.length, position + 1);
             }
-
         }
 
         return candidateSet.getDataDistances();
     }
 
+    List<T> getReferenceObjects() {
+        return reference_objects;
+    }
+
     public MIFileStructure showStructure() {
         MIFileStructure mifs = new MIFileStructure(this);
         return mifs;
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.mi_file;
+
+import uk.ac.standrews.cs.utilities.ChannelWriter;
+import uk.ac.standrews.cs.utilities.Codec;
+import uk.ac.standrews.cs.utilities.MappedObjectList;
+import uk.ac.standrews.cs.utilities.measures.coreConcepts.Measure;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes MI-Files.
+ * <p>
+ * The file format is:
+ * <pre>
+ *     header:               magic, version, n_ro, ki, ks, max_pos_diff, number_of_items, max_score, and the offsets of the sections below
+ *     reference objects:    the encoded reference objects, followed by n_ro + 1 longs giving the offset of each
+ *     objects:              the encoded data objects, followed by number_of_items + 1 longs giving the offset of each
+ *     postings:             for each reference object with a posting list: the object ids (ints) sorted by score,
+ *                           followed by the scores (shorts), padded to a multiple of 4 bytes
+ *     posting directory:    for each reference object: the offset of its postings (long), the number of entries (int),
+ *                           and max_score + 2 ints giving the offset in the list at which each score starts
+ * </pre>
+ * Opening a file maps it into memory, so that the posting lists and data objects are read directly from the mapped
+ * file; only the reference objects are decoded when the file is opened. The operating system page cache shares the
+ * mapped file between all the processes on a host that open it. The postings are mapped in chunks of at most 2GB,
+ * each holding whole posting lists, rather than one mapping for each list, so that an index with many reference
+ * objects does not approach the operating system's limit on the number of mappings.
+ */
+class MIFileStorage {
+
+    private static final int MAGIC = 0x4d494631; // "MIF1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8 * 4 + 5 * 8;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * Writes the MI-File to a temporary file alongside the path, which then atomically replaces any existing file, so
+     * that an index opened from the path, and still mapped from it, is unaffected.
+     */
+    static <T> void save(MIFile<T> file, Path path, Codec<T> codec) throws IOException {
+
+        Path temporary = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(file, channel, codec);
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static <T> void write(MIFile<T> file, FileChannel channel, Codec<T> codec) throws IOException {
+
+        ChannelWriter writer = new ChannelWriter(channel, HEADER_SIZE);
+        InvertedFile inverted_file = file.invFile;
+        int max_score = inverted_file.getMaxScore();
+
+        long reference_objects_offset = writer.position();
+        long reference_object_index_offset = MappedObjectList.write(writer, file.getReferenceObjects(), codec);
+
+        long objects_offset = writer.position();
+        long object_index_offset = MappedObjectList.write(writer, file.objects, codec);
+
+        long[] posting_offsets = new long[file.n_ro];
+        PostingListCursor cursor = new PostingListCursor();
+
+        for (int reference_index = 0; reference_index < file.n_ro; reference_index++) {
+
+            PostingList list = inverted_file.getPostingList(reference_index);
+            if (list != null) {
+                posting_offsets[reference_index] = writer.position();
+
+                list.getRange(0, max_score, cursor);
+                while (cursor.next()) {
+                    writer.putInt(cursor.getId());
+                }
+                list.getRange(0, max_score, cursor);
+                while (cursor.next()) {
+                    writer.putShort((short) cursor.getScore());
+                }
+                if (list.size() % 2 != 0) {
+                    writer.putShort((short) 0);
+                }
+            }
+        }
+
+        long directory_offset = writer.position();
+
+        for (int reference_index = 0; reference_index < file.n_ro; reference_index++) {
+
+            PostingList list = inverted_file.getPostingList(reference_index);
+            writer.putLong(posting_offsets[reference_index]);
+            writer.putInt(list == null ? 0 : list.size());
+            int[] score_offsets = list == null ? new int[max_score + 2] : list.getScoreOffsets();
+            for (int offset : score_offsets) {
+                writer.putInt(offset);
+            }
+        }
+        writer.flush();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(file.n_ro).putInt(file.ki).putInt(file.ks).putInt(file.max_pos_diff);
+        header.putInt(file.number_of_items).putInt(max_score);
+        header.putLong(reference_objects_offset).putLong(reference_object_index_offset);
+        header.putLong(objects_offset).putLong(object_index_offset).putLong(directory_offset);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    static <T> MIFile<T> open(Path path, Measure<T> measure, Codec<T> codec) throws IOException {
+
+        return open(path, measure, codec, MAX_CHUNK_SIZE);
+    }
+
+    static <T> MIFile<T> open(Path path, Measure<T> measure, Codec<T> codec, long max_chunk_size) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not an MI-File: " + path);
+            }
+            int n_ro = header.getInt();
+            int ki = header.getInt();
+            int ks = header.getInt();
+            int max_pos_diff = header.getInt();
+            int number_of_items = header.getInt();
+            int max_score = header.getInt();
+            long reference_objects_offset = header.getLong();
+            long reference_object_index_offset = header.getLong();
+            long objects_offset = header.getLong();
+            long object_index_offset = header.getLong();
+            long directory_offset = header.getLong();
+
+            MappedObjectList<T> reference_objects = new MappedObjectList<>(channel, reference_objects_offset, reference_object_index_offset, n_ro, codec);
+            List<T> decoded_reference_objects = new ArrayList<>(reference_objects);
+
+            MappedObjectList<T> objects = new MappedObjectList<>(channel, objects_offset, object_index_offset, number_of_items, codec);
+
+            int directory_entry_size = 8 + 4 + 4 * (max_score + 2);
+            ByteBuffer directory = ChannelWriter.map(channel, directory_offset, (long) n_ro * directory_entry_size);
+            long[] postings_offsets = new long[n_ro];
+            int[] sizes = new int[n_ro];
+            int[][] score_offsets = new int[n_ro][max_score + 2];
+
+            for (int reference_index = 0; reference_index < n_ro; reference_index++) {
+
+                postings_offsets[reference_index] = directory.getLong();
+                sizes[reference_index] = directory.getInt();
+                directory.asIntBuffer().get(score_offsets[reference_index]);
+                directory.position(directory.position() + 4 * (max_score + 2));
+            }
+
+            PostingList[] lists = new PostingList[n_ro];
+            int first = 0;
+
+            // the lists follow one another in the file, so each chunk maps as many as fit from the first not yet mapped.
+            while (first < n_ro) {
+
+                if (sizes[first] == 0) {
+                    first++;
+                    continue;
+                }
+
+                long chunk_start = postings_offsets[first];
+                long chunk_end = chunk_start;
+                int end = first;
+
+                while (end < n_ro && (sizes[end] == 0 || postings_offsets[end] + 6L * sizes[end] - chunk_start <= max_chunk_size)) {
+                    if (sizes[end] > 0) {
+                        chunk_end = postings_offsets[end] + 6L * sizes[end];
+                    }
+                    end++;
+                }
+                if (end == first) {
+                    throw new IOException("posting list of " + 6L * sizes[first] + " bytes is too large to be mapped");
+                }
+
+                ByteBuffer chunk = ChannelWriter.map(channel, chunk_start, chunk_end - chunk_start);
+
+                for (int reference_index = first; reference_index < end; reference_index++) {
+
+                    int size = sizes[reference_index];
+                    if (size > 0) {
+                        int start = (int) (postings_offsets[reference_index] - chunk_start);
+                        ByteBuffer postings = chunk.duplicate();
+                        postings.position(start).limit(start + 4 * size);
+                        IntBuffer ids = postings.slice().asIntBuffer();
+                        postings.limit(start + 6 * size).position(start + 4 * size);
+                        ShortBuffer scores = postings.slice().asShortBuffer();
+                        lists[reference_index] = new PostingList(max_score, ids, scores, score_offsets[reference_index]);
+                    }
+                }
+                first = end;
+            }
+
+            return new MIFile<>(measure, decoded_reference_objects, new InvertedFile(max_score, lists), objects, ki, ks, max_pos_diff);
+        }
+    }
+}
@@ -17,7 +17,6 @@
 package uk.ac.standrews.cs.utilities.mi_file;
 
 import java.util.HashMap;
-import java.util.Map;
 
 /**
  * A class used to hold the structure of the MIFile for analysis purposes.
@@ -32,6 +31,8 @@ public class MIFileStructure {
     public final int max_pos_diff;       //consider just objects with at most max_pos_diff with respect to the query - AMATO
     public final int number_of_items;    // number of items are in the data set
     public final int number_of_keys;     // the number of keys in the MIFile
+    public final long number_of_postings; // the total number of entries in all the posting lists
+    public final long posting_bytes;      // the memory used by the entries in the posting lists
 
     public HashMap<Integer,Integer> list_distribution = new HashMap<>(); // Used by showStructure to record posting list size distributions
 
@@ -43,13 +44,19 @@ public class MIFileStructure {
         this.number_of_items = mif.number_of_items;
 
 
-        HashMap<T, PostingList<T>> entries = mif.inverted_index;
+        InvertedFile inverted_file = mif.invFile;
 
-        this.number_of_keys = entries.keySet().size();
+        int keys = 0;
+        long postings = 0;
 
-        for( Map.Entry<T,PostingList<T>> entry : entries.entrySet() ) {
+        for( int reference_index = 0; reference_index < inverted_file.numberOfPostingLists(); reference_index++ ) {
 
-            int number_of_entries = entry.getValue().getEntries().size();
+            int number_of_entries = inverted_file.getPostingListSize(reference_index);
+            if( number_of_entries == -1 ) {
+                continue;
+            }
+            keys++;
+            postings += number_of_entries;
 
             Integer count = list_distribution.get(number_of_entries);
             if( count == null ) {
@@ -58,6 +65,14 @@ public class MIFileStructure {
                 list_distribution.put(number_of_entries,count + 1 );
             }
         }
+        this.number_of_keys = keys;
+        this.number_of_postings = postings;
+        this.posting_bytes = postings * (Integer.BYTES + Short.BYTES);
+    }
+
+    public String toString() {
+        return "n_ro: " + n_ro + " ki: " + ki + " ks: " + ks + " max_pos_diff: " + max_pos_diff + " items: " + number_of_items +
+                " keys: " + number_of_keys + " postings: " + number_of_postings + " posting bytes: " + posting_bytes;
     }
 
     
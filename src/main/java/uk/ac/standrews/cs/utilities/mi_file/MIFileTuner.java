@@ -0,0 +1,197 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.mi_file;
+
+import uk.ac.standrews.cs.utilities.measures.coreConcepts.DataDistance;
+import uk.ac.standrews.cs.utilities.measures.coreConcepts.Measure;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Evaluates the quality of MI-Files built with different parameters.
+ * <p>
+ * The nearest neighbours of a sample of queries are first found by brute force. An MI-File is then built for each value
+ * of ki, and queried with each combination of ks and max_pos_diff, recording the recall against the brute force results,
+ * the mean query time and the memory used by the posting lists. The results show the trade-off curve between them.
+ */
+public class MIFileTuner<T> {
+
+    private final Measure<T> measure;
+    private final Set<T> reference_objects;
+    private final List<T> data;
+    private final List<T> queries;
+    private final int k;
+    private final List<List<T>> ground_truth = new ArrayList<>();
+
+    /**
+     * @param measure           the measure used by the MI-Files
+     * @param reference_objects the reference objects to be used
+     * @param data              the data to be indexed
+     * @param queries           a sample of queries
+     * @param k                 the number of nearest neighbours retrieved by each query
+     */
+    public MIFileTuner(Measure<T> measure, Set<T> reference_objects, List<T> data, List<T> queries, int k) {
+
+        this.measure = measure;
+        this.reference_objects = reference_objects;
+        this.data = data;
+        this.queries = queries;
+        this.k = k;
+
+        for (T query : queries) {
+            ground_truth.add(bruteForceNearest(query));
+        }
+    }
+
+    /**
+     * Evaluates every combination of the given parameter values. Combinations that are not valid for the number of
+     * reference objects are skipped.
+     *
+     * @return the results for each combination
+     */
+    public List<Result> tune(int[] ki_values, int[] ks_values, int[] max_pos_diff_values) throws Exception {
+
+        List<Result> results = new ArrayList<>();
+
+        for (int ki : ki_values) {
+
+            if (ki >= reference_objects.size()) {
+                continue;
+            }
+
+            MIFile<T> file = new MIFile<>(measure, reference_objects, ki, ki);
+            file.addAll(data);
+
+            for (int ks : ks_values) {
+                for (int max_pos_diff : max_pos_diff_values) {
+
+                    if (ks > reference_objects.size()) {
+                        continue;
+                    }
+                    file.ks = ks;
+                    file.max_pos_diff = max_pos_diff;
+
+                    for (T query : queries) {     // warm up before timing.
+                        file.nearestN(query, k);
+                    }
+
+                    long found = 0;
+                    long start = System.nanoTime();
+
+                    for (int index = 0; index < queries.size(); index++) {
+                        found += countFound(file.nearestN(queries.get(index), k), ground_truth.get(index));
+                    }
+
+                    long elapsed = System.nanoTime() - start;
+
+                    double recall = (double) found / ((long) queries.size() * k);
+                    double mean_query_time = elapsed / 1000.0 / queries.size();
+                    results.add(new Result(file.showStructure(), recall, mean_query_time));
+                }
+            }
+        }
+        markParetoOptimal(results);
+        return results;
+    }
+
+    /**
+     * @param results the results of tune()
+     * @return a table of the results in decreasing order of recall, with the Pareto-optimal combinations marked with *
+     */
+    public static String report(List<Result> results) {
+
+        List<Result> sorted = new ArrayList<>(results);
+        sorted.sort(Comparator.comparingDouble((Result r) -> -r.recall).thenComparingDouble(r -> r.mean_query_time_us));
+
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%4s %4s %12s %8s %14s %14s%n", "ki", "ks", "max_pos_diff", "recall", "query time us", "posting bytes"));
+
+        for (Result result : sorted) {
+            builder.append(String.format("%4d %4d %12d %8.3f %14.1f %14d%s%n", result.structure.ki, result.structure.ks, result.structure.max_pos_diff,
+                    result.recall, result.mean_query_time_us, result.structure.posting_bytes, result.pareto_optimal ? " *" : ""));
+        }
+        return builder.toString();
+    }
+
+    //-------------------------------------------------------------
+
+    private List<T> bruteForceNearest(T query) {
+
+        List<DataDistance<T>> distances = new ArrayList<>();
+        for (T object : data) {
+            distances.add(new DataDistance<>(object, measure.distance(query, object)));
+        }
+        distances.sort(Comparator.comparingDouble(dd -> dd.distance));
+
+        List<T> result = new ArrayList<>();
+        for (int index = 0; index < Math.min(k, distances.size()); index++) {
+            result.add(distances.get(index).value);
+        }
+        return result;
+    }
+
+    private static <T> int countFound(List<DataDistance<T>> results, List<T> truth) {
+
+        int found = 0;
+        for (DataDistance<T> result : results) {
+            if (truth.contains(result.value)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static void markParetoOptimal(List<Result> results) {
+
+        for (Result result : results) {
+            result.pareto_optimal = true;
+            for (Result other : results) {
+                if (other.dominates(result)) {
+                    result.pareto_optimal = false;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * The quality of an MI-File built with one combination of parameters.
+     */
+    public static class Result {
+
+        public final MIFileStructure structure;  // the parameters and size of the MI-File
+        public final double recall;              // the proportion of the true k nearest neighbours found
+        public final double mean_query_time_us;  // in microseconds
+        public boolean pareto_optimal;           // no other combination is at least as good in every respect and better in one
+
+        Result(MIFileStructure structure, double recall, double mean_query_time_us) {
+            this.structure = structure;
+            this.recall = recall;
+            this.mean_query_time_us = mean_query_time_us;
+        }
+
+        private boolean dominates(Result other) {
+
+            boolean at_least_as_good = recall >= other.recall && mean_query_time_us <= other.mean_query_time_us && structure.posting_bytes <= other.structure.posting_bytes;
+            boolean better = recall > other.recall || mean_query_time_us < other.mean_query_time_us || structure.posting_bytes < other.structure.posting_bytes;
+            return at_least_as_good && better;
+        }
+    }
+}
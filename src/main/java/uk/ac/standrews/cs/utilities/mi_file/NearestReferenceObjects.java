@@ -0,0 +1,210 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.mi_file;
+
+import uk.ac.standrews.cs.utilities.measures.coreConcepts.Measure;
+import uk.ac.standrews.cs.utilities.measures.implementation.CartesianPoint;
+import uk.ac.standrews.cs.utilities.richard.dataPoints.cartesian.CartesianDistances;
+import uk.ac.standrews.cs.utilities.richard.dataPoints.cartesian.Euclidean;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Finds the reference objects nearest to an object.
+ * <p>
+ * The distances to all the reference objects are computed into a primitive array, in parallel if requested (which
+ * pays off for expensive measures such as edit distances over many reference objects), and the nearest k are then
+ * selected with a partial quicksort. When the reference objects are Cartesian points compared by Euclidean distance,
+ * their coordinates are packed into a single contiguous array so that the distances are computed in a tight loop over
+ * consecutive memory, by the unrolled kernel of the Euclidean measure.
+ */
+class NearestReferenceObjects<T> {
+
+    private final List<T> reference_objects;
+    private final Measure<T> measure;
+    private final double[] packed_points;     // the coordinates of the reference objects in row-major order, or null if not Cartesian.
+    private final int dimensions;
+    private boolean parallel = false;
+
+    NearestReferenceObjects(List<T> reference_objects, Measure<T> measure) {
+
+        this.reference_objects = reference_objects;
+        this.measure = measure;
+
+        int point_dimensions = cartesianDimensions(reference_objects, measure);
+
+        if (point_dimensions >= 0) {
+            dimensions = point_dimensions;
+            packed_points = new double[reference_objects.size() * dimensions];
+            for (int index = 0; index < reference_objects.size(); index++) {
+                System.arraycopy(((CartesianPoint) reference_objects.get(index)).getPoint(), 0, packed_points, index * dimensions, dimensions);
+            }
+        } else {
+            dimensions = -1;
+            packed_points = null;
+        }
+    }
+
+    void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * @param object the object
+     * @param k      the number of reference objects required
+     * @return the indices of the k nearest reference objects to the object, nearest first, with ties broken by index
+     */
+    int[] nearest(T object, int k) {
+
+        int n_ro = reference_objects.size();
+        double[] distances = new double[n_ro];
+
+        if (packed_points != null && object instanceof CartesianPoint && ((CartesianPoint) object).getPoint().length == dimensions) {
+            packedDistances(((CartesianPoint) object).getPoint(), distances);
+
+        } else if (parallel) {
+            IntStream.range(0, n_ro).parallel().forEach(index -> distances[index] = measure.distance(object, reference_objects.get(index)));
+
+        } else {
+            for (int index = 0; index < n_ro; index++) {
+                distances[index] = measure.distance(object, reference_objects.get(index));
+            }
+        }
+
+        return selectK(distances, Math.min(k, n_ro));
+    }
+
+    /**
+     * Selects the k smallest distances.
+     *
+     * @param distances the distances, indexed by reference object
+     * @param k         the number to select
+     * @return the indices of the k smallest distances in order, with ties broken by index
+     */
+    static int[] selectK(double[] distances, int k) {
+
+        int[] indices = new int[distances.length];
+        for (int index = 0; index < indices.length; index++) {
+            indices[index] = index;
+        }
+
+        if (k > 0 && k < indices.length) {
+            quickSelect(distances, indices, 0, indices.length - 1, k - 1);
+        }
+        quickSort(distances, indices, 0, k - 1);
+
+        int[] result = new int[k];
+        System.arraycopy(indices, 0, result, 0, k);
+        return result;
+    }
+
+    //-------------------------------------------------------------
+
+    private void packedDistances(double[] point, double[] distances) {
+
+        if (parallel) {
+            IntStream.range(0, distances.length).parallel().forEach(index -> distances[index] = packedDistance(point, index));
+        } else {
+            for (int index = 0; index < distances.length; index++) {
+                distances[index] = packedDistance(point, index);
+            }
+        }
+    }
+
+    private double packedDistance(double[] point, int reference_index) {
+
+        // the same kernel as the Euclidean measure, so that the distances are identical.
+        return Math.sqrt(CartesianDistances.squaredEuclidean(point, packed_points, reference_index * dimensions, dimensions, Double.POSITIVE_INFINITY));
+    }
+
+    /**
+     * @return the number of dimensions of the reference objects if they are all Cartesian points of the same dimension
+     * compared by Euclidean distance, or -1 otherwise
+     */
+    private static <T> int cartesianDimensions(List<T> reference_objects, Measure<T> measure) {
+
+        if (!(measure instanceof Euclidean) || reference_objects.isEmpty()) {
+            return -1;
+        }
+
+        int dimensions = -1;
+        for (T reference : reference_objects) {
+            if (!(reference instanceof CartesianPoint)) {
+                return -1;
+            }
+            int length = ((CartesianPoint) reference).getPoint().length;
+            if (dimensions != -1 && length != dimensions) {
+                return -1;
+            }
+            dimensions = length;
+        }
+        return dimensions;
+    }
+
+    private static boolean less(double[] distances, int[] indices, int i, int j) {
+        double di = distances[indices[i]];
+        double dj = distances[indices[j]];
+        return di < dj || (di == dj && indices[i] < indices[j]);
+    }
+
+    /**
+     * Partially sorts indices[from..to] so that the entry at position is in its sorted place, with no smaller entry after it.
+     */
+    private static void quickSelect(double[] distances, int[] indices, int from, int to, int position) {
+
+        while (from < to) {
+            int pivot = partition(distances, indices, from, to);
+            if (pivot == position) {
+                return;
+            } else if (pivot < position) {
+                from = pivot + 1;
+            } else {
+                to = pivot - 1;
+            }
+        }
+    }
+
+    private static void quickSort(double[] distances, int[] indices, int from, int to) {
+
+        if (from < to) {
+            int pivot = partition(distances, indices, from, to);
+            quickSort(distances, indices, from, pivot - 1);
+            quickSort(distances, indices, pivot + 1, to);
+        }
+    }
+
+    private static int partition(double[] distances, int[] indices, int from, int to) {
+
+        swap(indices, from + (to - from) / 2, to);   // use the middle entry as the pivot, to avoid the worst case on sorted data.
+
+        int store = from;
+        for (int index = from; index < to; index++) {
+            if (less(distances, indices, index, to)) {
+                swap(indices, index, store++);
+            }
+        }
+        swap(indices, store, to);
+        return store;
+    }
+
+    private static void swap(int[] indices, int i, int j) {
+        int swap = indices[i];
+        indices[i] = indices[j];
+        indices[j] = swap;
+    }
+}
@@ -16,60 +16,247 @@
  */
 package uk.ac.standrews.cs.utilities.mi_file;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
 
 /**
+ * A posting list for a single reference object, held in primitive arrays.
+ * Entries are appended unsorted and are compacted into score order (with a directory of the offset at which each score starts)
+ * the first time the list is read after an insertion. Compaction is synchronized and publishes the sorted entries as a
+ * single immutable snapshot, so concurrent readers never see the arrays of one compaction with the directory of another;
+ * insertions still require a single writer and no concurrent reads.
+ * A list opened from a file reads the mapped file directly, and is only copied onto the heap when it is first modified.
+ *
  * Created by al on 11/10/2017.
  */
-public class PostingList<T> {
+public class PostingList {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final int max_score;
+
+    private int[] ids;              // the ids of the objects in the list.
+    private short[] scores;         // the score of each entry, parallel to ids.
+    private int size;
+
+    private volatile Sorted sorted; // the entries in score order - null when the list needs compacting.
+
+    private IntBuffer mapped_ids;   // the entries of a list read from a file, sorted by score - null once the list is copied onto the heap.
+    private ShortBuffer mapped_scores;
+
+    /**
+     * The entries in score order, never modified once published.
+     */
+    private static final class Sorted {
+
+        final int[] ids;
+        final short[] scores;
+        final IntBuffer mapped_ids;     // used instead of the arrays for a list read from a file.
+        final ShortBuffer mapped_scores;
+        final int[] score_offsets;      // entries with score s are at [score_offsets[s], score_offsets[s+1]).
+
+        Sorted(int[] ids, short[] scores, IntBuffer mapped_ids, ShortBuffer mapped_scores, int[] score_offsets) {
+            this.ids = ids;
+            this.scores = scores;
+            this.mapped_ids = mapped_ids;
+            this.mapped_scores = mapped_scores;
+            this.score_offsets = score_offsets;
+        }
+    }
+
+    public PostingList(int max_score) {
+
+        if (max_score > Short.MAX_VALUE) {
+            throw new RuntimeException("Maximum score " + max_score + " cannot be represented in a posting list");
+        }
+        this.max_score = max_score;
+        ids = new int[INITIAL_CAPACITY];
+        scores = new short[INITIAL_CAPACITY];
+        size = 0;
+        sorted = null;
+    }
 
-    private HashMap<Integer,ArrayList<PostingListEntry<T>>> map; // maps from positions to posting lists at that distance.
+    /**
+     * Creates a list over entries that are already sorted by score, such as those in a mapped file.
+     */
+    PostingList(int max_score, IntBuffer ids, ShortBuffer scores, int[] score_offsets) {
 
-    public PostingList() {
-        map = new HashMap<>();
+        this.max_score = max_score;
+        this.mapped_ids = ids;
+        this.mapped_scores = scores;
+        this.size = ids.limit();
+        this.sorted = new Sorted(null, null, ids, scores, score_offsets);
     }
 
-    private PostingList(PostingList<T> oldPostingList, int from, int to) {
-        this();
-        for( int index = from; index <= to; index++ ) {  // copy the old list to the new.
-            ArrayList<PostingListEntry<T>> old = oldPostingList.map.get(index);
-            ArrayList<PostingListEntry<T>> copy = new ArrayList<>();
-            if( old != null ) {
-                for (PostingListEntry<T> entry : old) {
-                    copy.add(entry);
-                }
+    public void add(int id, int score) {
+
+        copyToHeap();
+
+        if (size == ids.length) {
+            int capacity = Math.max(INITIAL_CAPACITY, size + (size >> 1));
+            ids = Arrays.copyOf(ids, capacity);
+            scores = Arrays.copyOf(scores, capacity);
+        }
+        ids[size] = id;
+        scores[size] = (short) score;
+        size++;
+        sorted = null;
+    }
+
+    /**
+     * Merges a batch of entries, already sorted by score, into this list.
+     * The batch is merged after any existing entries with the same score.
+     *
+     * @param batch_ids    the ids of the objects in the batch
+     * @param batch_scores the scores of the entries in the batch, in non-decreasing order
+     * @param from         the index of the first entry of the batch in the arrays
+     * @param to           the index after the last entry of the batch in the arrays
+     */
+    public void addSorted(int[] batch_ids, short[] batch_scores, int from, int to) {
+
+        copyToHeap();
+        compact();
+
+        int[] merged_ids = new int[size + to - from];
+        short[] merged_scores = new short[merged_ids.length];
+
+        int index = 0;
+        int batch_index = from;
+        int merged_index = 0;
+
+        while (index < size && batch_index < to) {
+            if (scores[index] <= batch_scores[batch_index]) {
+                merged_ids[merged_index] = ids[index];
+                merged_scores[merged_index++] = scores[index++];
+            } else {
+                merged_ids[merged_index] = batch_ids[batch_index];
+                merged_scores[merged_index++] = batch_scores[batch_index++];
             }
-            map.put( index, copy);
         }
+        while (index < size) {
+            merged_ids[merged_index] = ids[index];
+            merged_scores[merged_index++] = scores[index++];
+        }
+        while (batch_index < to) {
+            merged_ids[merged_index] = batch_ids[batch_index];
+            merged_scores[merged_index++] = batch_scores[batch_index++];
+        }
+
+        ids = merged_ids;
+        scores = merged_scores;
+        size = merged_ids.length;
+        sorted = new Sorted(ids, scores, null, null, countScores());
+    }
+
+    public int size() {
+        return size;
     }
 
-    public void add(PostingListEntry<T> ple) {
-        int score = ple.getScore();
-        ArrayList<PostingListEntry<T>> list = map.get(score);
-        if( list == null ) {
-            list = new ArrayList<PostingListEntry<T>>();
-            map.put( score,list );
+    /**
+     * Positions a cursor over the entries with scores in the range from..to inclusive, without copying them.
+     * The cursor is invalidated by any subsequent insertion into this list.
+     *
+     * @param from   the lowest score of interest
+     * @param to     the highest score of interest
+     * @param cursor the cursor to be positioned before the first entry in the range
+     */
+    public void getRange(int from, int to, PostingListCursor cursor) {
+
+        Sorted entries = compact();
+
+        int start = entries.score_offsets[clamp(from)];
+        int end = from > to ? start : entries.score_offsets[clamp(to) + 1];
+
+        if (entries.mapped_ids != null) {
+            cursor.set(entries.mapped_ids, entries.mapped_scores, start, end);
+        } else {
+            cursor.set(entries.ids, entries.scores, start, end);
         }
-        list.add( ple );
     }
 
-    public PostingList<T> getSubRange(int from, int to) {
-        return new PostingList<>( this, from, to );
+    //-------------------------------------------------------------
+
+    /**
+     * @return a copy of the directory of the offsets at which each score starts in score order
+     */
+    int[] getScoreOffsets() {
+
+        int[] score_offsets = compact().score_offsets;
+        return Arrays.copyOf(score_offsets, score_offsets.length);
     }
 
-    public List<PostingListEntry<T>> getEntries() {
-        List<PostingListEntry<T>> result = new ArrayList<>();
+    private void copyToHeap() {
 
-        for( Map.Entry<Integer, ArrayList<PostingListEntry<T>>> entry : map.entrySet() ) {
-            List<PostingListEntry<T>> list = entry.getValue();
-            if( list != null ) {
-                result.addAll(list);
-            }
+        if (mapped_ids != null) {
+            ids = new int[size];
+            scores = new short[size];
+            mapped_ids.duplicate().get(ids);
+            mapped_scores.duplicate().get(scores);
+            mapped_ids = null;
+            mapped_scores = null;
+        }
+    }
+
+    private int clamp(int score) {
+        return Math.max(0, Math.min(score, max_score));
+    }
+
+    /**
+     * Sorts the entries into score order with a stable counting sort and builds the score offset directory.
+     * Also trims the arrays to the number of entries.
+     *
+     * @return the entries in score order
+     */
+    private Sorted compact() {
+
+        Sorted entries = sorted;
+        if (entries != null) {
+            return entries;
+        }
+
+        synchronized (this) {
+            return compactUnderLock();
         }
-        return result;
     }
 
+    private Sorted compactUnderLock() {
+
+        if (sorted != null) {   // compacted by another reader while waiting for the lock.
+            return sorted;
+        }
+
+        int[] offsets = countScores();
+
+        int[] sorted_ids = new int[size];
+        short[] sorted_scores = new short[size];
+        int[] next = Arrays.copyOf(offsets, max_score + 1);
+
+        for (int index = 0; index < size; index++) {
+            int position = next[scores[index]]++;
+            sorted_ids[position] = ids[index];
+            sorted_scores[position] = scores[index];
+        }
+
+        ids = sorted_ids;
+        scores = sorted_scores;
+        sorted = new Sorted(ids, scores, null, null, offsets);
+        return sorted;
+    }
+
+    /**
+     * @return the directory of the offsets at which each score would start if the entries were sorted by score
+     */
+    private int[] countScores() {
+
+        int[] offsets = new int[max_score + 2];
+
+        for (int index = 0; index < size; index++) {
+            offsets[scores[index] + 1]++;
+        }
+        for (int score = 0; score <= max_score; score++) {
+            offsets[score + 1] += offsets[score];
+        }
+        return offsets;
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.mi_file;
+
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A cursor over a contiguous range of entries in a posting list.
+ * The cursor reads the arrays of the posting list directly, so no entries are copied, and it may be reused for many ranges.
+ * <p>
+ * Typical use:
+ * <pre>
+ *     while (cursor.next()) {
+ *         int id = cursor.getId();
+ *         int score = cursor.getScore();
+ *     }
+ * </pre>
+ */
+public class PostingListCursor {
+
+    private static final int[] NO_IDS = new int[0];
+    private static final short[] NO_SCORES = new short[0];
+
+    private int[] ids = NO_IDS;
+    private short[] scores = NO_SCORES;
+    private IntBuffer mapped_ids;          // used instead of the arrays for posting lists held in a mapped file.
+    private ShortBuffer mapped_scores;
+    private boolean mapped;
+    private int position;
+    private int end;
+
+    void set(int[] ids, short[] scores, int start, int end) {
+        this.ids = ids;
+        this.scores = scores;
+        this.mapped = false;
+        this.position = start - 1;
+        this.end = end;
+    }
+
+    void set(IntBuffer ids, ShortBuffer scores, int start, int end) {
+        this.mapped_ids = ids;
+        this.mapped_scores = scores;
+        this.mapped = true;
+        this.position = start - 1;
+        this.end = end;
+    }
+
+    void clear() {
+        set(NO_IDS, NO_SCORES, 0, 0);
+    }
+
+    /**
+     * Moves the cursor to the next entry in the range.
+     *
+     * @return true if the cursor is positioned on an entry, false if the range is exhausted
+     */
+    public boolean next() {
+        return ++position < end;
+    }
+
+    /**
+     * @return the id of the object at the current entry
+     */
+    public int getId() {
+        return mapped ? mapped_ids.get(position) : ids[position];
+    }
+
+    /**
+     * @return the score of the current entry
+     */
+    public int getScore() {
+        return mapped ? mapped_scores.get(position) : scores[position];
+    }
+}
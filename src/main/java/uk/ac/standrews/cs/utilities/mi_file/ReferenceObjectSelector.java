@@ -0,0 +1,290 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.mi_file;
+
+import uk.ac.standrews.cs.utilities.measures.coreConcepts.Measure;
+
+import java.util.*;
+
+/**
+ * Strategies for choosing the reference objects of an MI-File from the data to be indexed.
+ * All the strategies are deterministic for a given seed.
+ * <p>
+ * Each strategy returns n distinct objects, ignoring any duplicates in the data, and throws IllegalArgumentException
+ * if the data does not hold n distinct objects. The farthest first and k-medoids strategies treat objects at distance
+ * zero from each other as duplicates, and the others use equals().
+ */
+public class ReferenceObjectSelector<T> {
+
+    private final Measure<T> measure;
+    private final Random random;
+
+    public ReferenceObjectSelector(Measure<T> measure, long seed) {
+
+        this.measure = measure;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param data the data from which to choose
+     * @param n    the number of reference objects
+     * @return n objects chosen uniformly at random
+     */
+    public Set<T> random(List<T> data, int n) {
+
+        checkSize(data, n);
+        return new LinkedHashSet<>(sample(data, n, n));
+    }
+
+    /**
+     * Chooses each reference object to be the object furthest from all of those already chosen, starting from a random one.
+     * This spreads the reference objects out but tends to choose outliers.
+     *
+     * @param data the data from which to choose
+     * @param n    the number of reference objects
+     * @return the chosen objects
+     */
+    public Set<T> farthestFirst(List<T> data, int n) {
+
+        checkSize(data, n);
+        Set<T> result = new LinkedHashSet<>();
+
+        double[] nearest = new double[data.size()];   // the distance from each object to the closest chosen object.
+        Arrays.fill(nearest, Double.MAX_VALUE);
+
+        int next = random.nextInt(data.size());
+
+        while (result.size() < n) {
+
+            if (nearest[next] == 0) {                 // every object is at distance zero from one already chosen.
+                throw tooFewDistinct(data, n);
+            }
+            T chosen = data.get(next);
+            result.add(chosen);
+
+            int furthest = -1;
+            for (int index = 0; index < data.size(); index++) {
+                nearest[index] = Math.min(nearest[index], measure.distance(data.get(index), chosen));
+                if (furthest == -1 || nearest[index] > nearest[furthest]) {
+                    furthest = index;
+                }
+            }
+            next = furthest;
+        }
+        return result;
+    }
+
+    /**
+     * Chooses the medoids of n clusters of a random sample of the data, so that the reference objects are
+     * representative of dense regions. The clusters are found by alternately assigning each object to its
+     * nearest medoid and moving each medoid to the member of its cluster with the least total distance to the others.
+     *
+     * @param data        the data from which to choose
+     * @param n           the number of reference objects
+     * @param sample_size the number of objects to cluster
+     * @param iterations  the maximum number of assignment and update rounds
+     * @return the chosen objects
+     */
+    public Set<T> kMedoids(List<T> data, int n, int sample_size, int iterations) {
+
+        checkSize(data, n);
+        List<T> sample = sample(data, Math.max(n, Math.min(sample_size, data.size())), n);
+
+        List<T> medoids = new ArrayList<>(new ReferenceObjectSelector<>(measure, random.nextLong()).farthestFirst(sample, n));
+        int[] assignment = new int[sample.size()];
+
+        for (int iteration = 0; iteration < iterations; iteration++) {
+
+            for (int index = 0; index < sample.size(); index++) {
+                assignment[index] = nearest(sample.get(index), medoids);
+            }
+
+            boolean changed = false;
+
+            for (int cluster = 0; cluster < medoids.size(); cluster++) {
+
+                List<T> members = new ArrayList<>();
+                for (int index = 0; index < sample.size(); index++) {
+                    if (assignment[index] == cluster) {
+                        members.add(sample.get(index));
+                    }
+                }
+
+                T best = medoids.get(cluster);
+                double best_total = totalDistance(best, members);
+
+                for (T member : members) {
+                    double total = totalDistance(member, members);
+                    if (total < best_total) {
+                        best = member;
+                        best_total = total;
+                    }
+                }
+                if (best != medoids.get(cluster)) {
+                    medoids.set(cluster, best);
+                    changed = true;
+                }
+            }
+            if (!changed) {
+                break;
+            }
+        }
+        return new LinkedHashSet<>(medoids);
+    }
+
+    /**
+     * Incremental selection, from Bustos, Navarro and Chavez, "Pivot selection techniques for proximity searching in
+     * metric spaces". Each reference object is chosen from a random sample of candidates to maximise the mean distance,
+     * in the space of distances to the reference objects chosen so far, between a fixed random sample of pairs of objects.
+     * Reference objects that separate the data well are thus chosen.
+     *
+     * @param data       the data from which to choose
+     * @param n          the number of reference objects
+     * @param candidates the number of candidates considered for each reference object
+     * @param pairs      the number of pairs of objects used to evaluate the candidates
+     * @return the chosen objects
+     */
+    public Set<T> incremental(List<T> data, int n, int candidates, int pairs) {
+
+        checkSize(data, n);
+
+        List<T> firsts = new ArrayList<>();
+        List<T> seconds = new ArrayList<>();
+        for (int pair = 0; pair < pairs; pair++) {
+            firsts.add(data.get(random.nextInt(data.size())));
+            seconds.add(data.get(random.nextInt(data.size())));
+        }
+
+        double[] separation = new double[pairs];  // the L-infinity distance between each pair in the pivot space so far.
+        Set<T> result = new LinkedHashSet<>();
+
+        while (result.size() < n) {
+
+            T best = null;
+            double best_mean = -1;
+            double[] best_separation = null;
+
+            for (T candidate : sample(data, Math.min(candidates, data.size()))) {
+
+                if (result.contains(candidate)) {
+                    continue;
+                }
+
+                double[] candidate_separation = new double[pairs];
+                double total = 0;
+                for (int pair = 0; pair < pairs; pair++) {
+                    double difference = Math.abs(measure.distance(firsts.get(pair), candidate) - measure.distance(seconds.get(pair), candidate));
+                    candidate_separation[pair] = Math.max(separation[pair], difference);
+                    total += candidate_separation[pair];
+                }
+                if (total / pairs > best_mean) {
+                    best = candidate;
+                    best_mean = total / pairs;
+                    best_separation = candidate_separation;
+                }
+            }
+
+            if (best == null) {      // all the candidates had already been chosen - fall back to any unchosen object.
+                for (T object : data) {
+                    if (!result.contains(object)) {
+                        best = object;
+                        break;
+                    }
+                }
+                if (best == null) {
+                    throw tooFewDistinct(data, n);
+                }
+            } else {
+                separation = best_separation;
+            }
+            result.add(best);
+        }
+        return result;
+    }
+
+    //-------------------------------------------------------------
+
+    private void checkSize(List<T> data, int n) {
+
+        if (n > data.size()) {
+            throw new IllegalArgumentException("Cannot choose " + n + " reference objects from " + data.size() + " objects");
+        }
+    }
+
+    private IllegalArgumentException tooFewDistinct(List<T> data, int n) {
+
+        return new IllegalArgumentException("Cannot choose " + n + " reference objects from " + data.size() + " objects with fewer than " + n + " distinct");
+    }
+
+    private List<T> sample(List<T> data, int n) {
+
+        return sample(data, n, 0);
+    }
+
+    /**
+     * @return at least n objects chosen uniformly at random, continuing until they include the given number of distinct objects
+     */
+    private List<T> sample(List<T> data, int n, int distinct) {
+
+        int[] indices = new int[data.size()];
+        for (int index = 0; index < indices.length; index++) {
+            indices[index] = index;
+        }
+
+        List<T> result = new ArrayList<>();
+        Set<T> distinct_objects = new HashSet<>();
+
+        for (int index = 0; index < n || distinct_objects.size() < distinct; index++) {      // partial Fisher-Yates shuffle.
+
+            if (index == indices.length) {
+                throw tooFewDistinct(data, distinct);
+            }
+            int swap = index + random.nextInt(indices.length - index);
+            int chosen = indices[swap];
+            indices[swap] = indices[index];
+            indices[index] = chosen;
+            result.add(data.get(chosen));
+            if (distinct > 0) {
+                distinct_objects.add(data.get(chosen));
+            }
+        }
+        return result;
+    }
+
+    private int nearest(T object, List<T> medoids) {
+
+        int nearest = 0;
+        double nearest_distance = Double.MAX_VALUE;
+        for (int index = 0; index < medoids.size(); index++) {
+            double distance = measure.distance(object, medoids.get(index));
+            if (distance < nearest_distance) {
+                nearest = index;
+                nearest_distance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    private double totalDistance(T object, List<T> members) {
+
+        double total = 0;
+        for (T member : members) {
+            total += measure.distance(object, member);
+        }
+        return total;
+    }
+}
@@ -43,11 +43,16 @@ public class PhoneticWrapper extends StringMeasure {
 
     @Override
     public double calculateDistance(String x, String y) {
+        return calculateDistanceBounded(x, y, Double.POSITIVE_INFINITY);
+    }
+
+    @Override
+    protected double calculateDistanceBounded(String x, String y, double bound) {
         try {
             String str1 = encoder.encode(x);
             String str2 = encoder.encode(y);
 
-            return metric.distance(str1, str2);
+            return metric.distanceBounded(str1, str2, bound);
 
         } catch (EncoderException e) {
             throw new RuntimeException(e);
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.richard.dataPoints.cartesian;
+
+/**
+ * Distance kernels over the coordinates of Cartesian points, shared by the Cartesian measures.
+ * <p>
+ * Each loop is unrolled by four into independent accumulators, so that successive additions do not wait on each other
+ * and the JIT compiler can issue them together. The kernels for sums of non-negative terms, and for maxima, take a bound
+ * and abandon the summation once the partial result exceeds it, returning that partial result; it is checked every
+ * {@link #ABANDON_INTERVAL} coordinates so that the check does not dominate the loop. A bound of
+ * {@link Double#POSITIVE_INFINITY} gives the full result.
+ */
+public final class CartesianDistances {
+
+    // The number of coordinates between checks against the bound; a multiple of the unrolling.
+    private static final int ABANDON_INTERVAL = 16;
+
+    private CartesianDistances() {
+    }
+
+    /**
+     * @param x the coordinates of the first point
+     * @param y an array holding the coordinates of the second point
+     * @param y_offset the position of the first coordinate of the second point in y
+     * @param length the number of coordinates
+     * @param bound the bound above which the sum may be abandoned
+     * @return the sum of the squared differences, or a partial sum greater than the bound
+     */
+    public static double squaredEuclidean(double[] x, double[] y, int y_offset, int length, double bound) {
+
+        double acc0 = 0.0, acc1 = 0.0, acc2 = 0.0, acc3 = 0.0;
+        int i = 0;
+
+        for (int stop = length - ABANDON_INTERVAL + 1; i < stop; i += ABANDON_INTERVAL) {
+
+            for (int k = i; k < i + ABANDON_INTERVAL; k += 4) {
+                final double diff0 = x[k] - y[y_offset + k];
+                final double diff1 = x[k + 1] - y[y_offset + k + 1];
+                final double diff2 = x[k + 2] - y[y_offset + k + 2];
+                final double diff3 = x[k + 3] - y[y_offset + k + 3];
+                acc0 += diff0 * diff0;
+                acc1 += diff1 * diff1;
+                acc2 += diff2 * diff2;
+                acc3 += diff3 * diff3;
+            }
+
+            final double partial = (acc0 + acc1) + (acc2 + acc3);
+            if (partial > bound) {
+                return partial;
+            }
+        }
+
+        for (; i < length; i++) {
+            final double diff = x[i] - y[y_offset + i];
+            acc0 += diff * diff;
+        }
+        return (acc0 + acc1) + (acc2 + acc3);
+    }
+
+    /**
+     * @param x the coordinates of the first point
+     * @param y an array holding the coordinates of the second point
+     * @param y_offset the position of the first coordinate of the second point in y
+     * @param length the number of coordinates
+     * @param bound the bound above which the sum may be abandoned
+     * @return the sum of the absolute differences, or a partial sum greater than the bound
+     */
+    public static double manhattan(double[] x, double[] y, int y_offset, int length, double bound) {
+
+        double acc0 = 0.0, acc1 = 0.0, acc2 = 0.0, acc3 = 0.0;
+        int i = 0;
+
+        for (int stop = length - ABANDON_INTERVAL + 1; i < stop; i += ABANDON_INTERVAL) {
+
+            for (int k = i; k < i + ABANDON_INTERVAL; k += 4) {
+                acc0 += Math.abs(x[k] - y[y_offset + k]);
+                acc1 += Math.abs(x[k + 1] - y[y_offset + k + 1]);
+                acc2 += Math.abs(x[k + 2] - y[y_offset + k + 2]);
+                acc3 += Math.abs(x[k + 3] - y[y_offset + k + 3]);
+            }
+
+            final double partial = (acc0 + acc1) + (acc2 + acc3);
+            if (partial > bound) {
+                return partial;
+            }
+        }
+
+        for (; i < length; i++) {
+            acc0 += Math.abs(x[i] - y[y_offset + i]);
+        }
+        return (acc0 + acc1) + (acc2 + acc3);
+    }
+
+    /**
+     * @param x the coordinates of the first point
+     * @param y an array holding the coordinates of the second point
+     * @param y_offset the position of the first coordinate of the second point in y
+     * @param length the number of coordinates
+     * @param bound the bound above which the maximum may be abandoned
+     * @return the maximum absolute difference, or a partial maximum greater than the bound
+     */
+    public static double chebyshev(double[] x, double[] y, int y_offset, int length, double bound) {
+
+        double max0 = 0.0, max1 = 0.0, max2 = 0.0, max3 = 0.0;
+        int i = 0;
+
+        for (int stop = length - ABANDON_INTERVAL + 1; i < stop; i += ABANDON_INTERVAL) {
+
+            for (int k = i; k < i + ABANDON_INTERVAL; k += 4) {
+                max0 = Math.max(max0, Math.abs(x[k] - y[y_offset + k]));
+                max1 = Math.max(max1, Math.abs(x[k + 1] - y[y_offset + k + 1]));
+                max2 = Math.max(max2, Math.abs(x[k + 2] - y[y_offset + k + 2]));
+                max3 = Math.max(max3, Math.abs(x[k + 3] - y[y_offset + k + 3]));
+            }
+
+            final double partial = Math.max(Math.max(max0, max1), Math.max(max2, max3));
+            if (partial > bound) {
+                return partial;
+            }
+        }
+
+        for (; i < length; i++) {
+            max0 = Math.max(max0, Math.abs(x[i] - y[y_offset + i]));
+        }
+        return Math.max(Math.max(max0, max1), Math.max(max2, max3));
+    }
+
+    /**
+     * @param x the coordinates of the first point
+     * @param y the coordinates of the second point
+     * @return the dot product of the points
+     */
+    public static double dotProduct(double[] x, double[] y) {
+
+        final int length = x.length;
+        double acc0 = 0.0, acc1 = 0.0, acc2 = 0.0, acc3 = 0.0;
+        int i = 0;
+
+        for (; i + 4 <= length; i += 4) {
+            acc0 += x[i] * y[i];
+            acc1 += x[i + 1] * y[i + 1];
+            acc2 += x[i + 2] * y[i + 2];
+            acc3 += x[i + 3] * y[i + 3];
+        }
+        for (; i < length; i++) {
+            acc0 += x[i] * y[i];
+        }
+        return (acc0 + acc1) + (acc2 + acc3);
+    }
+
+    static void checkDimensions(double[] x, double[] y) {
+
+        if (x.length != y.length) {
+            throw new IllegalArgumentException("points have different dimensions: " + x.length + " and " + y.length);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.richard.dataPoints.cartesian;
+
+import uk.ac.standrews.cs.utilities.measures.coreConcepts.Measure;
+import uk.ac.standrews.cs.utilities.measures.implementation.CartesianPoint;
+
+/**
+ * Chebyshev (L-infinity) distance: the greatest absolute difference of the coordinates.
+ */
+public class Chebyshev<T extends CartesianPoint> extends Measure<T> {
+
+    public double calculateDistance(T x, T y) {
+        return calculateDistanceBounded(x, y, Double.POSITIVE_INFINITY);
+    }
+
+    @Override
+    protected double calculateDistanceBounded(T x, T y, double bound) {
+
+        double[] xs = x.getPoint();
+        double[] ys = y.getPoint();
+        CartesianDistances.checkDimensions(xs, ys);
+
+        return CartesianDistances.chebyshev(xs, ys, 0, xs.length, bound);
+    }
+
+    @Override
+    public String getMeasureName() {
+        return "cheb";
+    }
+
+    @Override
+    public boolean maxDistanceIsOne() {
+        return false;
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.richard.dataPoints.cartesian;
+
+import uk.ac.standrews.cs.utilities.measures.coreConcepts.Measure;
+import uk.ac.standrews.cs.utilities.measures.implementation.CartesianPoint;
+
+/**
+ * Cosine distance as the angle between the points, as a fraction of a straight angle, so that it is a metric
+ * in [0, 1] whatever the signs of the coordinates: opposite points are at distance one. The magnitudes are
+ * those cached by the points.
+ *
+ * The origin has no direction, so its cosine similarity to any other point is taken as zero, as the dot
+ * product gives: it is at distance one half (orthogonal) from every other point and at distance zero from
+ * itself. This keeps the triangle inequality.
+ */
+public class Cosine<T extends CartesianPoint> extends Measure<T> {
+
+    public double calculateDistance(T x, T y) {
+
+        double[] xs = x.getPoint();
+        double[] ys = y.getPoint();
+        CartesianDistances.checkDimensions(xs, ys);
+
+        double magnitudes = x.getMagnitude() * y.getMagnitude();
+        if (magnitudes == 0.0) {   // at least one is the origin, which has no direction.
+            return x.getMagnitude() == y.getMagnitude() ? 0.0 : 0.5;
+        }
+
+        // truncate at 1.0 in case of rounding error.
+        double cosine_similarity = Math.min(CartesianDistances.dotProduct(xs, ys) / magnitudes, 1.0);
+        return Math.acos(Math.max(cosine_similarity, -1.0)) / Math.PI;
+    }
+
+    @Override
+    public String getMeasureName() {
+        return "cos";
+    }
+
+    @Override
+    public boolean maxDistanceIsOne() {
+        return true;
+    }
+}
@@ -26,16 +26,22 @@ import uk.ac.standrews.cs.utilities.measures.coreConcepts.Measure;
  */
 public class Euclidean<T extends CartesianPoint> extends Measure<T> {
 
+    private static final double SQUARED_BOUND_MARGIN = 1.0 + 1e-12;
+
     public double calculateDistance(T x, T y) {
+        return calculateDistanceBounded(x, y, Double.POSITIVE_INFINITY);
+    }
 
+    @Override
+    protected double calculateDistanceBounded(T x, T y, double bound) {
+
+        double[] xs = x.getPoint();
         double[] ys = y.getPoint();
-        double acc = 0;
-        int ptr = 0;
-        for (double xVal : x.getPoint()) {
-            final double diff = xVal - ys[ptr++];
-            acc += diff * diff;
-        }
-        return Math.sqrt(acc);
+        CartesianDistances.checkDimensions(xs, ys);
+
+        // the square of the bound is widened slightly so that the root of any abandoned sum still exceeds the bound.
+        double squared_bound = bound < 0.0 ? 0.0 : bound * bound * SQUARED_BOUND_MARGIN;
+        return Math.sqrt(CartesianDistances.squaredEuclidean(xs, ys, 0, xs.length, squared_bound));
     }
 
     @Override
@@ -149,8 +149,10 @@ public class VPTree<T> extends SearchIndex<T> {
 
 			final T pivotValue = VPTree.this.data.get(this.pivot);
 
-			double queryToPivotDistance1 = VPTree.this.measure.distance(query,
-					pivotValue);
+			// beyond pivotDist + threshold only the right subtree is searched, so
+			// the distance itself is not needed.
+			double queryToPivotDistance1 = VPTree.this.measure.distanceBounded(
+					query, pivotValue, this.pivotDist + threshold);
 
 			if (queryToPivotDistance1 < threshold) {
 				results.add(this.pivot);
@@ -178,8 +180,10 @@ public class VPTree<T> extends SearchIndex<T> {
 
 			final T pivotValue = VPTree.this.data.get(this.pivot);
 
-			double queryToPivotDistance1 = VPTree.this.measure.distance(query,
-					pivotValue);
+			// beyond pivotDist + threshold only the right subtree is searched, so
+			// the distance itself is not needed.
+			double queryToPivotDistance1 = VPTree.this.measure.distanceBounded(
+					query, pivotValue, this.pivotDist + threshold);
 
 			if (queryToPivotDistance1 < threshold) {
 				results.add(pivotValue);
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedArrayTest {
+
+    @Test
+    public void elementsReadAcrossChunks() throws IOException {
+
+        Path path = Files.createTempFile("mapped_array", ".bin");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            ChannelWriter writer = new ChannelWriter(channel, 0);
+            writer.putInt(-1);   // the array starts after a gap.
+            for (int i = 0; i < 30; i++) writer.putInt(i * 7);
+            for (long i = 0; i < 10; i++) writer.putLong(i << 40);
+            writer.flush();
+
+            // chunks of 20 bytes hold one unit of three ints, or two longs.
+            MappedArray ints = new MappedArray(channel, 4, 30, 4, 3, 20);
+            MappedArray longs = new MappedArray(channel, 124, 10, 8, 1, 20);
+
+            assertEquals(30, ints.length());
+            for (int i = 0; i < 30; i++) {
+                assertEquals(i * 7, ints.getInt(i));
+            }
+            for (int i = 0; i < 10; i++) {
+                assertEquals((long) i << 40, longs.getLong(i));
+            }
+
+            int[] unit = new int[3];
+            ints.getInts(27, unit);
+            assertArrayEquals(new int[]{189, 196, 203}, unit);
+
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void objectsReadAcrossChunks() throws IOException {
+
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            strings.add(i % 5 == 0 ? "" : "string " + i);
+        }
+
+        Path path = Files.createTempFile("mapped_object_list", ".bin");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            ChannelWriter writer = new ChannelWriter(channel, 0);
+            long index_offset = MappedObjectList.write(writer, strings, Codec.strings());
+            writer.flush();
+
+            for (long max_chunk_size : new long[]{9, 30, Integer.MAX_VALUE}) {
+                assertEquals(strings, new MappedObjectList<>(channel, 0, index_offset, strings.size(), Codec.strings(), max_chunk_size));
+            }
+            assertThrows(IOException.class, () -> new MappedObjectList<>(channel, 0, index_offset, strings.size(), Codec.strings(), 8));
+
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
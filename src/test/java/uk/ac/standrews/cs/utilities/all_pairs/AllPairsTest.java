@@ -0,0 +1,316 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.all_pairs;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.standrews.cs.utilities.measures.Cosine;
+import uk.ac.standrews.cs.utilities.measures.implementation.FeatureVector;
+import uk.ac.standrews.cs.utilities.measures.implementation.KeyFreqPair;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AllPairsTest {
+
+    @Test
+    public void joinMatchesBruteForce() {
+
+        List<String> documents = randomDocuments(400, 20, 5, 1);
+
+        for (double threshold : new double[]{0.3, 0.6, 0.9}) {
+
+            Map<String, Double> expected = bruteForce(documents, threshold);
+            Map<String, Double> actual = new HashMap<>();
+
+            for (SimilarityPair pair : AllPairs.join(documents, threshold, 2)) {
+                assertNull(actual.put(key(documents.get(pair.a), documents.get(pair.b)), pair.similarity), "pair found twice");
+            }
+
+            for (String pair : expected.keySet()) {
+                assertTrue(actual.containsKey(pair), "missing " + pair);
+                assertEquals(expected.get(pair), actual.get(pair), 1e-9);
+            }
+            for (String pair : actual.keySet()) {
+                // Pairs within rounding error of the threshold may fall either side of it.
+                assertTrue(expected.containsKey(pair) || actual.get(pair) > threshold - 1e-9, "unexpected " + pair);
+            }
+        }
+    }
+
+    @Test
+    public void parallelJoinMatchesSequential() {
+
+        List<String> documents = randomDocuments(2000, 20, 5, 3);
+
+        Map<String, Double> sequential = new HashMap<>();
+        for (SimilarityPair pair : AllPairs.join(documents, 0.5, 2)) {
+            sequential.put(key(documents.get(pair.a), documents.get(pair.b)), pair.similarity);
+        }
+
+        Map<String, Double> parallel = new HashMap<>();
+        for (SimilarityPair pair : AllPairs.join(documents, 0.5, 2, 4)) {
+            assertNull(parallel.put(key(documents.get(pair.a), documents.get(pair.b)), pair.similarity), "pair found twice");
+        }
+
+        assertEquals(sequential, parallel);
+    }
+
+    @Test
+    public void streamedMatchesWrittenAndTopK() throws IOException {
+
+        List<String> documents = randomDocuments(300, 20, 5, 4);
+        List<SimilarityPair> all = AllPairs.join(documents, 0.4, 2);
+
+        Path path = Files.createTempFile("all_pairs_test", ".bin");
+        try {
+            try (SimilarityPairWriter writer = SimilarityPairWriter.binary(path)) {
+                AllPairs.join(documents, 0.4, 2, 2, writer);
+                assertEquals(all.size(), writer.getNumberWritten());
+            }
+            assertEquals(all.size() * SimilarityPairWriter.RECORD_SIZE, Files.size(path));
+
+            Set<String> read = new HashSet<>();
+            SimilarityPairWriter.readBinary(path, pair -> read.add(key(documents.get(pair.a), documents.get(pair.b))));
+            Set<String> expected = new HashSet<>();
+            for (SimilarityPair pair : all) {
+                expected.add(key(documents.get(pair.a), documents.get(pair.b)));
+            }
+            assertEquals(expected, read);
+
+        } finally {
+            Files.delete(path);
+        }
+
+        int k = 3;
+        TopKMatches top_matches = new TopKMatches(documents.size(), k);
+        AllPairs.join(documents, 0.4, 2, 2, top_matches);
+
+        for (int document = 0; document < documents.size(); document++) {
+
+            List<Double> expected = new ArrayList<>();
+            for (SimilarityPair pair : all) {
+                if (pair.a == document || pair.b == document) {
+                    expected.add(pair.similarity);
+                }
+            }
+            expected.sort(Comparator.reverseOrder());
+
+            List<Double> kept = new ArrayList<>();
+            for (SimilarityPair pair : top_matches.get(document)) {
+                assertTrue(pair.a == document || pair.b == document);
+                kept.add(pair.similarity);
+            }
+            assertEquals(expected.subList(0, Math.min(k, expected.size())), kept);
+        }
+    }
+
+    @Test
+    public void blockJoinMatchesInMemory() throws IOException {
+
+        List<String> documents = randomDocuments(300, 20, 5, 5);
+        documents.add("");
+
+        Set<String> expected = new HashSet<>();
+        for (SimilarityPair pair : AllPairs.join(documents, 0.4, 2)) {
+            expected.add(pair.toString());
+        }
+
+        Path directory = Files.createTempDirectory("all_pairs_test");
+        try {
+            for (int block_size : new int[]{1, 37, 1000}) {
+
+                Set<String> found = new HashSet<>();
+                AllPairs.join(documents.iterator(), 0.4, 2, block_size, directory, pair -> assertTrue(found.add(pair.toString())));
+
+                assertEquals(expected, found);
+                try (Stream<Path> files = Files.list(directory)) {
+                    assertEquals(0, files.count());
+                }
+            }
+        } finally {
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void topKJoinMatchesBruteForce() {
+
+        List<String> documents = randomDocuments(300, 20, 5, 5);
+        int k = 4;
+
+        for (double min_similarity : new double[]{0.0, 0.7}) {
+
+            TopKMatches top_matches = AllPairs.topK(documents, k, 2, min_similarity);
+
+            for (int x = 0; x < documents.size(); x++) {
+
+                FeatureVector x_vector = new FeatureVector(documents.get(x), 2);
+                List<Double> expected = new ArrayList<>();
+                for (int y = 0; y < documents.size(); y++) {
+                    double similarity = cosine(x_vector, new FeatureVector(documents.get(y), 2));
+                    if (y != x && similarity > 0.0 && similarity >= min_similarity) {
+                        expected.add(Math.min(similarity, 1.0));
+                    }
+                }
+                expected.sort(Comparator.reverseOrder());
+                expected = expected.subList(0, Math.min(k, expected.size()));
+
+                List<SimilarityPair> kept = top_matches.get(x);
+                assertEquals(expected.size(), kept.size());
+                for (int i = 0; i < kept.size(); i++) {
+                    assertEquals(x, kept.get(i).a);
+                    assertEquals(expected.get(i), kept.get(i).similarity, 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void matchesForDocument() {
+
+        AllPairs all_pairs = new AllPairs(0.5);
+        all_pairs.add("Jul. O Romeo, Romeo! wherefore art thou Romeo?");
+        all_pairs.add("Jul. O Romeo, 12345! wherefore art thou Romeo?");
+        all_pairs.add("GLOUCESTER. Now is the winter of our discontent");
+
+        List<SimilarityPair> matches = all_pairs.getMatches("Jul. O Romeo, Romeo! wherefore art thou Romeo?");
+
+        assertEquals(1, matches.size());
+        assertTrue(matches.get(0).similarity > 0.8);
+        assertTrue(all_pairs.getMatches("GLOUCESTER. Now is the winter of our discontent").isEmpty());
+
+        all_pairs.setMatchesPerDocument(1);
+        assertEquals(1, all_pairs.getMatches("Jul. O Romeo, 12345! wherefore art thou Romeo?").size());
+    }
+
+    @Test
+    public void matchesExtendedAfterAdding() {
+
+        List<String> documents = randomDocuments(300, 20, 5, 6);
+
+        AllPairs interleaved = new AllPairs(0.6);
+        AllPairs joined_once = new AllPairs(0.6);
+
+        for (int i = 0; i < documents.size(); i++) {
+            interleaved.add(documents.get(i));
+            joined_once.add(documents.get(i));
+            if (i == 100 || i > 250) {
+                interleaved.getMatches(documents.get(i));     // first a complete join, then one document at a time.
+            }
+        }
+
+        for (String document : documents) {
+            assertEquals(matchKeys(joined_once, document), matchKeys(interleaved, document));
+        }
+        assertTrue(interleaved.getMatches("not added").isEmpty());
+    }
+
+    private static Map<String, Double> matchKeys(AllPairs all_pairs, String document) {
+
+        Map<String, Double> keys = new HashMap<>();
+        for (SimilarityPair pair : all_pairs.getMatches(document)) {
+            keys.put(key(all_pairs.getDocument(pair.a), all_pairs.getDocument(pair.b)), pair.similarity);
+        }
+        return keys;
+    }
+
+    @Test
+    public void sparseVectorsMatchFeatureVectors() {
+
+        TokenDictionary dictionary = new TokenDictionary();
+        List<String> documents = randomDocuments(50, 20, 5, 2);
+        List<SparseVector> vectors = new ArrayList<>();
+
+        for (String document : documents) {
+            SparseVector vector = dictionary.vectorise(document, 2);
+            vectors.add(vector);
+
+            for (KeyFreqPair pair : new FeatureVector(document, 2).getFeatures()) {
+                int i = Arrays.binarySearch(vector.ids, dictionary.lookup(pair.qgram));
+                assertTrue(i >= 0);
+                assertEquals(pair.frequency, vector.weights[i], 0.0);
+            }
+        }
+        assertEquals(TokenDictionary.ABSENT, dictionary.lookup("zz"));
+
+        for (int i = 0; i < documents.size(); i++) {
+            for (int j = 0; j < documents.size(); j++) {
+                FeatureVector x = new FeatureVector(documents.get(i), 2);
+                FeatureVector y = new FeatureVector(documents.get(j), 2);
+                double expected = Math.min(cosine(x, y), 1.0);
+                assertEquals(expected, vectors.get(i).cosine(vectors.get(j)), 1e-12);
+                assertEquals(expected, Math.cos(new Cosine().distance(x, y) * Math.PI / 2), 1e-6);
+            }
+        }
+    }
+
+    static List<String> randomDocuments(int number, int length, int alphabet, long seed) {
+
+        Random random = new Random(seed);
+        List<String> documents = new ArrayList<>();
+
+        for (int i = 0; i < number; i++) {
+            StringBuilder builder = new StringBuilder();
+            int size = 2 + random.nextInt(length);
+            for (int j = 0; j < size; j++) {
+                builder.append((char) ('a' + random.nextInt(alphabet)));
+            }
+            documents.add(builder.toString() + i);   // distinct documents
+        }
+        return documents;
+    }
+
+    static Map<String, Double> bruteForce(List<String> documents, double threshold) {
+
+        Map<String, Double> result = new HashMap<>();
+
+        for (int i = 0; i < documents.size(); i++) {
+            for (int j = i + 1; j < documents.size(); j++) {
+                double similarity = cosine(new FeatureVector(documents.get(i), 2), new FeatureVector(documents.get(j), 2));
+                if (similarity >= threshold) {
+                    result.put(key(documents.get(i), documents.get(j)), Math.min(similarity, 1.0));
+                }
+            }
+        }
+        return result;
+    }
+
+    private static double cosine(FeatureVector x, FeatureVector y) {
+
+        double dot_product = 0.0;
+        double x_norm = 0.0;
+        double y_norm = 0.0;
+
+        for (KeyFreqPair pair : x.getFeatures()) {
+            dot_product += pair.frequency * y.getFrequency(pair.qgram);
+            x_norm += pair.frequency * pair.frequency;
+        }
+        for (KeyFreqPair pair : y.getFeatures()) {
+            y_norm += pair.frequency * pair.frequency;
+        }
+        return dot_product / Math.sqrt(x_norm * y_norm);
+    }
+
+    static String key(String a, String b) {
+        return a.compareTo(b) < 0 ? a + "|" + b : b + "|" + a;
+    }
+}
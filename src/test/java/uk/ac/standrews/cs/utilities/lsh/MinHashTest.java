@@ -17,10 +17,17 @@
 package uk.ac.standrews.cs.utilities.lsh;
 
 import org.junit.jupiter.api.Test;
+import uk.ac.standrews.cs.utilities.Codec;
 import uk.ac.standrews.cs.utilities.measures.Jaccard;
+import uk.ac.standrews.cs.utilities.measures.Levenshtein;
+import uk.ac.standrews.cs.utilities.measures.coreConcepts.Measure;
 import uk.ac.standrews.cs.utilities.measures.coreConcepts.StringMeasure;
 
-import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -41,9 +48,9 @@ public class MinHashTest {
 
         double jaccard_ngrams = jaccard.distance(StringMeasure.extractNGrams(input1, 2), StringMeasure.extractNGrams(input2, 2));
 
-        double jaccard_minhash = jaccard.distance(
-                Arrays.asList(MinHash.createMinHashSignature(input1, DEFAULTSIGNATURESIZE_TEST, 2)),
-                Arrays.asList(MinHash.createMinHashSignature(input2, DEFAULTSIGNATURESIZE_TEST, 2)));
+        double jaccard_minhash = estimatedDistance(
+                MinHash.createMinHashSignature(input1, DEFAULTSIGNATURESIZE_TEST, 2),
+                MinHash.createMinHashSignature(input2, DEFAULTSIGNATURESIZE_TEST, 2));
 
         assertEquals(0.0, Math.abs(jaccard_ngrams - jaccard_minhash));
     }
@@ -56,9 +63,9 @@ public class MinHashTest {
 
         double jaccard_ngrams = jaccard.distance(StringMeasure.extractNGrams(input1, 2), StringMeasure.extractNGrams(input2, 2));
 
-        double jaccard_minhash = jaccard.distance(
-                Arrays.asList(MinHash.createMinHashSignature(input1, 20, 2)),
-                Arrays.asList(MinHash.createMinHashSignature(input2, 20, 2)));
+        double jaccard_minhash = estimatedDistance(
+                MinHash.createMinHashSignature(input1, 20, 2),
+                MinHash.createMinHashSignature(input2, 20, 2));
 
         assertTrue(Math.abs(jaccard_ngrams - jaccard_minhash) < 0.2);
     }
@@ -71,10 +78,486 @@ public class MinHashTest {
 
         double jaccard_ngrams = jaccard.distance(StringMeasure.extractNGrams(input1, 2), StringMeasure.extractNGrams(input2, 2));
 
-        double jaccard_minhash = jaccard.distance(
-                Arrays.asList(MinHash.createMinHashSignature(input1, 20, 2)),
-                Arrays.asList(MinHash.createMinHashSignature(input2, 20, 2)));
+        double jaccard_minhash = estimatedDistance(
+                MinHash.createMinHashSignature(input1, 20, 2),
+                MinHash.createMinHashSignature(input2, 20, 2));
 
         assertTrue(Math.abs(jaccard_ngrams - jaccard_minhash) < 0.2);
     }
+
+    @Test
+    public void jaccard_estimates_unbiased() {
+
+        Random random = new Random(29);
+        SignatureGenerator generator = new SignatureGenerator(100, 2);
+
+        int number_of_pairs = 1000;
+        double total_error = 0.0;
+        double total_absolute_error = 0.0;
+
+        for (int pair = 0; pair < number_of_pairs; pair++) {
+
+            // near duplicates: a random string and a copy with a few characters replaced.
+            String input1 = randomString(random, 20 + random.nextInt(40), 26);
+            char[] chars = input1.toCharArray();
+            for (int edit = random.nextInt(6); edit >= 0; edit--) {
+                chars[random.nextInt(chars.length)] = (char) ('a' + random.nextInt(26));
+            }
+            String input2 = new String(chars);
+
+            Set<String> ngrams1 = new HashSet<>(StringMeasure.extractNGrams(input1, 2));
+            Set<String> ngrams2 = new HashSet<>(StringMeasure.extractNGrams(input2, 2));
+            Set<String> union = new HashSet<>(ngrams1);
+            union.addAll(ngrams2);
+            ngrams1.retainAll(ngrams2);
+            double similarity = (double) ngrams1.size() / union.size();
+
+            int[] signature1 = generator.signature(input1);
+            int[] signature2 = generator.signature(input2);
+            int equal = 0;
+            for (int index = 0; index < signature1.length; index++) {
+                if (signature1[index] == signature2[index]) equal++;
+            }
+            double error = (double) equal / signature1.length - similarity;
+
+            total_error += error;
+            total_absolute_error += Math.abs(error);
+        }
+
+        // the standard error of each estimate is at most 0.05, giving a mean absolute error of about 0.03.
+        assertTrue(total_absolute_error / number_of_pairs < 0.04, "mean absolute error " + total_absolute_error / number_of_pairs);
+        assertTrue(Math.abs(total_error / number_of_pairs) < 0.01, "bias " + total_error / number_of_pairs);
+    }
+
+    @Test
+    public void signature_matches_runners_up_variant() {
+
+        Random random = new Random(31);
+
+        for (int shingle_size = 1; shingle_size <= 3; shingle_size++) {
+
+            SignatureGenerator generator = new SignatureGenerator(DEFAULTSIGNATURESIZE_TEST, shingle_size);
+
+            for (int trial = 0; trial < 100; trial++) {
+
+                String input = randomString(random, random.nextInt(20), 6);
+                int[] signature = generator.signature(input);
+
+                assertArrayEquals(signature, generator.signature(input, new long[DEFAULTSIGNATURESIZE_TEST]));
+                assertArrayEquals(signature, Arrays.stream(MinHash.createMinHashSignature(input, DEFAULTSIGNATURESIZE_TEST, shingle_size)).mapToInt(Integer::intValue).toArray());
+            }
+        }
+    }
+
+    @Test
+    public void signature_depends_only_on_ngram_set() {
+
+        SignatureGenerator generator = new SignatureGenerator(DEFAULTSIGNATURESIZE_TEST, 2);
+
+        // "abab" and "babab" have the same 2-grams {ab, ba}.
+        assertArrayEquals(generator.signature("abab"), generator.signature("babab"));
+        assertFalse(Arrays.equals(generator.signature("abab"), generator.signature("abba")));
+
+        long[] runners_up = new long[DEFAULTSIGNATURESIZE_TEST];
+        String input = "Jul. O Romeo, Romeo! wherefore art thou Romeo?";
+        int[] signature = generator.signature(input, runners_up);
+
+        assertArrayEquals(generator.signature(input), signature);
+        for (int index = 0; index < DEFAULTSIGNATURESIZE_TEST; index++) {
+            assertTrue(runners_up[index] > signature[index]);
+        }
+    }
+
+    @Test
+    public void band_index_keeps_bands_apart() {
+
+        BandIndex index = new BandIndex();
+        long band0 = 17L;
+        long band1 = (1L << 32) | 17L;   // same hash, different band
+
+        for (int id = 0; id < 1000; id++) {
+            index.add(id % 2 == 0 ? band0 : band1, id);
+            index.add(1000L + id, id);
+        }
+
+        List<Integer> found = new ArrayList<>();
+        index.forEach(band0, found::add);
+
+        assertEquals(500, found.size());
+        assertTrue(found.stream().allMatch(id -> id % 2 == 0));
+        assertEquals(1002, index.numberOfKeys());
+        assertEquals(2000, index.numberOfPostings());
+
+        found.clear();
+        index.forEach(999999L, found::add);
+        assertTrue(found.isEmpty());
+    }
+
+    @Test
+    public void put_all_matches_put() {
+
+        Random random = new Random(11);
+        List<String> documents = new ArrayList<>();
+        for (int i = 0; i < 25000; i++) {       // more than one batch
+            documents.add(randomString(random, 12));
+        }
+
+        MinHash<Integer> sequential = new MinHash<>(2, 10, 2);
+        for (int i = 0; i < documents.size(); i++) {
+            sequential.put(documents.get(i), i);
+        }
+
+        MinHash<Integer> bulk = new MinHash<>(2, 10, 2);
+        bulk.putAll(IntStream.range(0, 20000).mapToObj(i -> new AbstractMap.SimpleEntry<>(documents.get(i), i)));
+        bulk.compact();
+        bulk.putAll(IntStream.range(20000, documents.size()).<Map.Entry<String, Integer>>mapToObj(i -> new AbstractMap.SimpleEntry<>(documents.get(i), i)).iterator());
+
+        assertEquals(sequential.showStructure().number_of_postings, bulk.showStructure().number_of_postings);
+        assertEquals(sequential.showStructure().list_distribution, bulk.showStructure().list_distribution);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(sequential.getClosest(documents.get(i)), bulk.getClosest(documents.get(i)));
+        }
+    }
+
+    @Test
+    public void ranked_queries_are_ordered_and_filtered() {
+
+        MinHash<String> minhash = new MinHash<>(2, 20, 2);
+        for (String name : new String[]{"jonathan smith", "jonathon smith", "jonathan smyth", "joanna smith", "mary brown", "john smith"}) {
+            minhash.put(name, name);
+        }
+
+        List<MinHashMatch<String>> estimated = minhash.getRanked("jonathan smith", 0, 0.5, 3);
+
+        assertTrue(estimated.size() <= 3);
+        assertEquals("jonathan smith", estimated.get(0).value);
+        assertEquals(1.0, estimated.get(0).estimated_similarity);
+        assertEquals(20, estimated.get(0).matching_bands);
+        assertTrue(Double.isNaN(estimated.get(0).distance));
+        for (int i = 1; i < estimated.size(); i++) {
+            assertTrue(estimated.get(i).estimated_similarity >= 0.5);
+            assertTrue(estimated.get(i).estimated_similarity <= estimated.get(i - 1).estimated_similarity);
+        }
+
+        List<MinHashMatch<String>> verified = minhash.getRanked("jonathan smith", 0, 0.0, 10, "jonathan smith", new Levenshtein());
+
+        assertEquals(0.0, verified.get(0).distance);
+        for (int i = 1; i < verified.size(); i++) {
+            assertTrue(verified.get(i).distance >= verified.get(i - 1).distance);
+        }
+        assertEquals(minhash.getClosest("jonathan smith").size(), verified.size());
+    }
+
+    @Test
+    public void ranked_queries_keep_only_k_nearest() {
+
+        Random random = new Random(37);
+        MinHash<String> minhash = new MinHash<>(2, 20, 2);
+        String query = "jonathan smith";
+
+        for (int i = 0; i < 300; i++) {
+            char[] chars = query.toCharArray();
+            for (int edit = random.nextInt(5); edit >= 0; edit--) {
+                chars[random.nextInt(chars.length)] = (char) ('a' + random.nextInt(26));
+            }
+            minhash.put(new String(chars), new String(chars));
+        }
+
+        int[] bounded_calls = new int[1];
+        Levenshtein levenshtein = new Levenshtein();
+        Measure<String> measure = new Measure<String>() {
+
+            public String getMeasureName() {
+                return "counted Levenshtein";
+            }
+
+            public boolean maxDistanceIsOne() {
+                return false;
+            }
+
+            protected double calculateDistance(String x, String y) {
+                return levenshtein.distance(x, y);
+            }
+
+            protected double calculateDistanceBounded(String x, String y, double bound) {
+                bounded_calls[0]++;
+                return levenshtein.distanceBounded(x, y, bound);
+            }
+        };
+
+        List<MinHashMatch<String>> all = minhash.getRanked(query, 0, 0.0, Integer.MAX_VALUE, query, levenshtein);
+        List<MinHashMatch<String>> nearest = minhash.getRanked(query, 0, 0.0, 5, query, measure);
+
+        assertTrue(all.size() > 5);
+        assertEquals(5, nearest.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(all.get(i).distance, nearest.get(i).distance, 0.0);
+            assertEquals(levenshtein.distance(query, nearest.get(i).value), nearest.get(i).distance, 0.0);
+        }
+        assertTrue(bounded_calls[0] > 0);
+        assertTrue(minhash.getRanked(query, 0, 0.0, 0, query, measure).isEmpty());
+    }
+
+    @Test
+    public void parameters_chosen_from_threshold() {
+
+        MinHashParameters parameters = MinHashParameters.choose(0.5, 0.1, 0.1, 2000);
+
+        assertTrue(parameters.meets_targets);
+        assertTrue(parameters.false_negative_rate <= 0.1);
+        assertTrue(parameters.false_positive_rate <= 0.1);
+        assertTrue(parameters.bytes_per_item <= 2000);
+
+        // the S-curve rises steeply through the threshold
+        assertTrue(MinHashParameters.candidateProbability(0.3, parameters.num_bands, parameters.band_size) < 0.2);
+        assertTrue(MinHashParameters.candidateProbability(0.7, parameters.num_bands, parameters.band_size) > 0.8);
+
+        MinHash<String> minhash = MinHash.forThreshold(2, 0.5, 0.1, 0.1, 2000);
+        assertEquals(parameters.num_bands * parameters.band_size, minhash.showStructure().signature_size);
+
+        assertThrows(IllegalArgumentException.class, () -> MinHash.forThreshold(2, 0.5, 0.001, 0.001, 100));
+    }
+
+    @Test
+    public void save_open_log_and_merge() throws Exception {
+
+        String[] names = {"jonathan smith", "jonathon smith", "jonathan smyth", "joanna smith", "mary brown", "john smith"};
+
+        MinHash<String> minhash = new MinHash<>(2, 10, 2);
+        for (String name : names) {
+            minhash.put(name, name);
+        }
+
+        Path path = Files.createTempFile("minhash_test", ".mnh");
+        Path log = path.resolveSibling(path.getFileName() + ".log");
+        try {
+            minhash.save(path, Codec.strings());
+
+            MinHash<String> opened = MinHash.open(path, Codec.strings());
+            for (String name : names) {
+                assertEquals(minhash.getClosest(name), opened.getClosest(name));
+            }
+            assertEquals(minhash.showStructure().list_distribution, opened.showStructure().list_distribution);
+
+            opened.put("mary browne", "mary browne");
+            minhash.put("mary browne", "mary browne");
+            assertEquals(minhash.getClosest("mary brown"), opened.getClosest("mary brown"));
+            opened.close();
+
+            Files.write(log, new byte[]{0, 0, 0, 9, 'p'}, StandardOpenOption.APPEND);   // an incomplete record
+
+            MinHash<String> reopened = MinHash.open(path, Codec.strings());
+            assertTrue(reopened.getClosest("mary brown").contains("mary browne"));
+            assertEquals(minhash.showStructure().number_of_postings, reopened.showStructure().number_of_postings);
+
+            reopened.mergeLog();
+            reopened.close();
+            assertEquals(Long.BYTES, Files.size(log));   // only the log generation
+
+            MinHash<String> merged = MinHash.open(path, Codec.strings());
+            for (String name : names) {
+                assertEquals(minhash.getClosest(name), merged.getClosest(name));
+            }
+            assertEquals(names.length + 1, merged.showStructure().number_of_items);
+            merged.close();
+
+        } finally {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(log);
+        }
+    }
+
+    @Test
+    public void merge_interrupted_before_log_emptied() throws Exception {
+
+        String[] names = {"jonathan smith", "jonathon smith", "jonathan smyth", "joanna smith", "mary brown", "john smith"};
+
+        MinHash<String> minhash = new MinHash<>(2, 10, 2);
+        for (String name : names) {
+            minhash.put(name, name);
+        }
+
+        Path path = Files.createTempFile("minhash_test", ".mnh");
+        Path log = path.resolveSibling(path.getFileName() + ".log");
+        try {
+            minhash.save(path, Codec.strings());
+
+            MinHash<String> opened = MinHash.open(path, Codec.strings());
+            opened.put("mary browne", "mary browne");
+            opened.close();
+            byte[] unmerged_log = Files.readAllBytes(log);
+
+            MinHash<String> reopened = MinHash.open(path, Codec.strings());
+            reopened.mergeLog();
+            reopened.close();
+
+            Files.write(log, unmerged_log);   // as if the merge failed after replacing the file
+
+            MinHash<String> merged = MinHash.open(path, Codec.strings());
+            assertEquals(names.length + 1, merged.showStructure().number_of_items);
+
+            merged.put("john smyth", "john smyth");
+            merged.close();
+
+            MinHash<String> added = MinHash.open(path, Codec.strings());
+            assertEquals(names.length + 2, added.showStructure().number_of_items);
+            assertTrue(added.getClosest("john smith").contains("john smyth"));
+            added.close();
+
+        } finally {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(log);
+        }
+    }
+
+    @Test
+    public void save_over_opened_file() throws Exception {
+
+        String[] names = {"jonathan smith", "jonathon smith", "jonathan smyth", "joanna smith", "mary brown", "john smith"};
+
+        MinHash<String> minhash = new MinHash<>(2, 10, 2);
+        for (String name : names) {
+            minhash.put(name, name);
+        }
+
+        Path path = Files.createTempFile("minhash_test", ".mnh");
+        Path log = path.resolveSibling(path.getFileName() + ".log");
+        try {
+            minhash.save(path, Codec.strings());
+            MinHash<String> opened = MinHash.open(path, Codec.strings());
+            Set<String> closest = opened.getClosest("jonathan smith");
+
+            minhash.put("mary browne", "mary browne");
+            minhash.save(path, Codec.strings());
+
+            assertEquals(closest, opened.getClosest("jonathan smith"));
+            assertEquals(names.length, opened.showStructure().number_of_items);
+            opened.close();
+
+            MinHash<String> reopened = MinHash.open(path, Codec.strings());
+            assertEquals(names.length + 1, reopened.showStructure().number_of_items);
+            assertTrue(reopened.getClosest("mary brown").contains("mary browne"));
+            reopened.close();
+
+        } finally {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(log);
+        }
+    }
+
+    @Test
+    public void b_bit_signatures_estimate_similarity() {
+
+        SignatureGenerator generator = new SignatureGenerator(512, 2);
+        String input1 = "Jul. O Romeo, Romeo! wherefore art thou Romeo?";
+        String input2 = "Jul. O Romeo, 12345! wherefore art thou Romeo?";
+
+        double jaccard_ngrams = 1 - jaccard.distance(StringMeasure.extractNGrams(input1, 2), StringMeasure.extractNGrams(input2, 2));
+
+        for (int bits : new int[]{1, 2, 4, 8}) {
+
+            BBitSignatures signatures = new BBitSignatures(512, bits);
+            int id1 = signatures.add(generator.signature(input1));
+            int id2 = signatures.add(generator.signature(input2));
+
+            assertEquals(1.0, signatures.estimateSimilarity(id1, generator.signature(input1)));
+            assertEquals(signatures.estimateSimilarity(id1, id2), signatures.estimateSimilarity(id1, generator.signature(input2)));
+            assertEquals(jaccard_ngrams, signatures.estimateSimilarity(id1, id2), 0.15);
+            assertEquals(8 * 512 * 2 * bits / 64, signatures.bytes());
+        }
+
+        MinHash<String> minhash = new MinHash<>(2, 20, 2);
+        minhash.setSignatureBits(2);
+        minhash.put(input1, input1);
+        minhash.put(input2, input2);
+
+        List<MinHashMatch<String>> matches = minhash.getRanked(input1, 0, 0.0, 2);
+        assertEquals(input1, matches.get(0).value);
+        assertEquals(1.0, matches.get(0).estimated_similarity);
+        assertThrows(IllegalStateException.class, () -> minhash.setSignatureBits(4));
+    }
+
+    @Test
+    public void weighted_signatures_respect_frequencies() {
+
+        WeightedSignatureGenerator generator = new WeightedSignatureGenerator(256, 2);
+
+        // the same 2-grams {ab, ba}, with frequencies 3, 2 and 1, 1: weighted Jaccard similarity 2 / 5.
+        double estimate = WeightedSignatureGenerator.estimateSimilarity(generator.signature("ababab"), generator.signature("aba"));
+
+        assertEquals(0.4, estimate, 0.1);
+        // frequencies 3, 2 and 2, 3: weighted Jaccard similarity 4 / 6.
+        assertEquals(4.0 / 6, WeightedSignatureGenerator.estimateSimilarity(generator.signature("ababab"), generator.signature("bababa")), 0.1);
+
+        MinHash<String> minhash = MinHash.weighted(2, 10, 2);
+        minhash.put("ababab", "ababab");
+        assertTrue(minhash.getClosest("ababab").contains("ababab"));
+        assertTrue(minhash.showStructure().weighted);
+        assertThrows(IllegalArgumentException.class, () -> minhash.getClosest("ababab", 5));
+    }
+
+    @Test
+    public void multi_probe_finds_more_near_duplicates() {
+
+        Random random = new Random(7);
+        List<String> documents = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            documents.add(randomString(random, 40));
+        }
+
+        MinHash<Integer> minhash = new MinHash<>(2, 5, 3);
+        for (int i = 0; i < documents.size(); i++) {
+            minhash.put(documents.get(i), i);
+        }
+
+        int single_probe_hits = 0;
+        int multi_probe_hits = 0;
+
+        for (int i = 0; i < 200; i++) {
+
+            char[] chars = documents.get(i).toCharArray();
+            for (int mutation = 0; mutation < 6; mutation++) {
+                chars[random.nextInt(chars.length)] = (char) ('a' + random.nextInt(26));
+            }
+            String query = new String(chars);
+
+            Set<Integer> single_probe = minhash.getClosest(query);
+            Set<Integer> multi_probe = minhash.getClosest(query, 50);
+
+            assertTrue(multi_probe.containsAll(single_probe));
+            if (single_probe.contains(i)) single_probe_hits++;
+            if (multi_probe.contains(i)) multi_probe_hits++;
+        }
+
+        assertTrue(multi_probe_hits > single_probe_hits);
+    }
+
+    /**
+     * @return the minhash estimate of the Jaccard distance, the proportion of positions in which the signatures differ
+     */
+    private static double estimatedDistance(Integer[] signature1, Integer[] signature2) {
+
+        int different = 0;
+        for (int index = 0; index < signature1.length; index++) {
+            if (!signature1[index].equals(signature2[index])) {
+                different++;
+            }
+        }
+        return (double) different / signature1.length;
+    }
+
+    private static String randomString(Random random, int length) {
+
+        return randomString(random, length, 26);
+    }
+
+    private static String randomString(Random random, int length, int alphabet) {
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(alphabet)));
+        }
+        return builder.toString();
+    }
 }
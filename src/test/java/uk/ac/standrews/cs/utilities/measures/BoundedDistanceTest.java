@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.measures;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.standrews.cs.utilities.measures.coreConcepts.Measure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundedDistanceTest {
+
+    @Test
+    public void boundedDistancesExactWithinBound() {
+
+        List<String> strings = randomStrings(60, 25, 4);
+
+        for (Measure<String> measure : Arrays.<Measure<String>>asList(new Levenshtein(), new Levenshtein(1.5, 2.0), new Levenshtein(1.0, 0.5),
+                new DamerauLevenshtein(1, 1, 1, 1), new DamerauLevenshtein(2, 1, 3, 2), new SED())) {
+
+            for (String x : strings) {
+                for (String y : strings) {
+
+                    double distance = measure.distance(x, y);
+
+                    for (double bound : new double[]{0.0, distance / 2, distance - 0.5, distance, distance + 0.5, distance * 2, Double.POSITIVE_INFINITY}) {
+
+                        double bounded = measure.distanceBounded(x, y, bound);
+                        if (distance <= bound) {
+                            assertEquals(distance, bounded, 0.0, measure + " " + x + " " + y + " " + bound);
+                        } else {
+                            assertTrue(bounded > bound, measure + " " + x + " " + y + " " + bound);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void unitCostAbandonedEarly() {
+
+        Levenshtein levenshtein = new Levenshtein();
+
+        // one and several words of the bit-parallel calculation.
+        for (int length : new int[]{40, 200}) {
+
+            String x = repeat('a', length);
+            String y = repeat('b', length);
+            assertEquals(length, levenshtein.distance(x, y), 0.0);
+
+            // the bottom row is the length in every column, so the lower bound exceeds 3 after the fourth column.
+            assertEquals(4.0, levenshtein.distanceBounded(x, y, 3.0), 0.0);
+            assertEquals(length, levenshtein.distanceBounded(x, y, length), 0.0);
+        }
+
+        List<String> strings = randomStrings(30, 150, 4);
+        for (String x : strings) {
+            for (String y : strings) {
+
+                double distance = levenshtein.distance(x, y);
+                for (double bound : new double[]{0.0, distance / 2, distance - 1, distance}) {
+
+                    double bounded = levenshtein.distanceBounded(x, y, bound);
+                    assertTrue(distance <= bound ? bounded == distance : bounded > bound && bounded <= distance, x + " " + y + " " + bound);
+                }
+            }
+        }
+    }
+
+    private static String repeat(char c, int length) {
+
+        char[] characters = new char[length];
+        Arrays.fill(characters, c);
+        return new String(characters);
+    }
+
+    private static List<String> randomStrings(int number, int max_length, int alphabet) {
+
+        Random random = new Random(1);
+        List<String> strings = new ArrayList<>();
+        strings.add("");
+
+        for (int i = 1; i < number; i++) {
+            StringBuilder builder = new StringBuilder();
+            int length = 1 + random.nextInt(max_length);
+            for (int j = 0; j < length; j++) {
+                builder.append((char) ('a' + random.nextInt(alphabet)));
+            }
+            strings.add(builder.toString());
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.measures;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.standrews.cs.utilities.measures.implementation.FeatureVector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CosineTest {
+
+    // distances are compared as similarities, since the arc cosine magnifies rounding errors in similarities close to one.
+    private static final double TOLERANCE = 1e-12;
+
+    private final Cosine cosine = new Cosine();
+
+    @Test
+    public void featureVectorsMatchDotProduct() {
+
+        for (String x : randomStrings(1)) {
+            for (String y : randomStrings(2)) {
+                assertEquals(similarity(frequencies(x), frequencies(y)), similarity(cosine.distance(new FeatureVector(x, 2), new FeatureVector(y, 2))), TOLERANCE, x + " " + y);
+            }
+        }
+    }
+
+    @Test
+    public void stringsMatchDotProduct() {
+
+        List<String> strings = randomStrings(3);
+        strings.add("");
+
+        for (String x : strings) {
+            for (String y : strings) {
+                assertEquals(similarity(presence("^" + x + "$"), presence("^" + y + "$")), similarity(cosine.distance(x, y)), TOLERANCE, x + " " + y);
+            }
+        }
+    }
+
+    /**
+     * The qgrams el, ll and lo are shared, but were missed when the feature vectors were looked up in frequency order.
+     */
+    @Test
+    public void sharedQgramsFound() {
+
+        double expected = 3.0 / Math.sqrt(4 * 5);
+
+        assertEquals(expected, similarity(frequencies("hello"), frequencies("yellow")), TOLERANCE);
+        assertEquals(expected, similarity(cosine.distance(new FeatureVector("hello", 2), new FeatureVector("yellow", 2))), TOLERANCE);
+        assertEquals(expected, similarity(cosine.distance(new FeatureVector("yellow", 2), new FeatureVector("hello", 2))), TOLERANCE);
+    }
+
+    @Test
+    public void identicalAndDisjoint() {
+
+        assertEquals(1.0, similarity(cosine.distance(new FeatureVector("Romeo, Romeo!", 2), new FeatureVector("Romeo, Romeo!", 2))), TOLERANCE);
+        assertEquals(1.0, cosine.distance(new FeatureVector("abcd", 2), new FeatureVector("wxyz", 2)), TOLERANCE);
+        assertEquals(1.0, similarity(cosine.distance("Romeo, Romeo!", "Romeo, Romeo!")), TOLERANCE);
+    }
+
+    //-------------------------------------------------------------
+
+    /**
+     * @return the cosine similarity of the qgram counts, from a direct dot product
+     */
+    private static double similarity(Map<String, Integer> x, Map<String, Integer> y) {
+
+        double dot_product = 0.0;
+        for (Map.Entry<String, Integer> entry : x.entrySet()) {
+            dot_product += (double) entry.getValue() * y.getOrDefault(entry.getKey(), 0);
+        }
+        return dot_product / (norm(x) * norm(y));
+    }
+
+    /**
+     * @return the cosine similarity corresponding to an angular distance
+     */
+    private static double similarity(double distance) {
+        return Math.cos(distance * Math.PI / 2.0);
+    }
+
+    private static double norm(Map<String, Integer> x) {
+
+        double sum_of_squares = 0.0;
+        for (int frequency : x.values()) {
+            sum_of_squares += (double) frequency * frequency;
+        }
+        return Math.sqrt(sum_of_squares);
+    }
+
+    private static Map<String, Integer> frequencies(String s) {
+
+        Map<String, Integer> result = new HashMap<>();
+        for (int i = 0; i + 2 <= s.length(); i++) {
+            result.merge(s.substring(i, i + 2), 1, Integer::sum);
+        }
+        return result;
+    }
+
+    /**
+     * The string measure counts each distinct qgram once.
+     */
+    private static Map<String, Integer> presence(String s) {
+
+        Map<String, Integer> result = new HashMap<>();
+        for (String qgram : frequencies(s).keySet()) {
+            result.put(qgram, 1);
+        }
+        return result;
+    }
+
+    private static List<String> randomStrings(long seed) {
+
+        Random random = new Random(seed);
+        Set<String> strings = new HashSet<>();
+
+        while (strings.size() < 40) {
+            StringBuilder builder = new StringBuilder();
+            int length = 2 + random.nextInt(15);
+            for (int i = 0; i < length; i++) {
+                builder.append((char) ('a' + random.nextInt(4)));
+            }
+            strings.add(builder.toString());
+        }
+        return new ArrayList<>(strings);
+    }
+}
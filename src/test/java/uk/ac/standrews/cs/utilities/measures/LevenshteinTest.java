@@ -0,0 +1,69 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.measures;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LevenshteinTest {
+
+    @Test
+    public void bitParallelMatchesTable() {
+
+        // costs of two use the table, and are exact in doubles.
+        Levenshtein bit_parallel = new Levenshtein();
+        Levenshtein table = new Levenshtein(2.0, 2.0);
+
+        Random random = new Random(1);
+        List<String> strings = new ArrayList<>();
+        strings.add("");
+
+        for (int length : new int[]{1, 2, 5, 20, 63, 64, 65, 100, 127, 128, 129, 200}) {
+            for (int i = 0; i < 4; i++) {
+                StringBuilder builder = new StringBuilder();
+                for (int j = 0; j < length; j++) {
+                    // mostly a small alphabet, with some characters beyond the lookup table.
+                    builder.append(random.nextInt(10) == 0 ? (char) (0x100 + random.nextInt(3)) : (char) ('a' + random.nextInt(4)));
+                }
+                strings.add(builder.toString());
+            }
+        }
+
+        for (String x : strings) {
+            for (String y : strings) {
+                assertEquals(table.distance(x, y) / 2, bit_parallel.distance(x, y), 0.0, x + " " + y);
+            }
+        }
+    }
+
+    @Test
+    public void examples() {
+
+        Levenshtein levenshtein = new Levenshtein();
+
+        assertEquals(0.0, levenshtein.distance("", ""));
+        assertEquals(3.0, levenshtein.distance("", "cat"));
+        assertEquals(1.0, levenshtein.distance("bat", "cat"));
+        assertEquals(5.0, levenshtein.distance("pillar", "caterpillar"));
+        assertEquals(3.0, levenshtein.distance("kitten", "sitting"));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.mi_file;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.standrews.cs.utilities.m_tree.experiments.euclidean.EuclideanDistance;
+import uk.ac.standrews.cs.utilities.m_tree.experiments.euclidean.Point;
+import uk.ac.standrews.cs.utilities.measures.coreConcepts.DataDistance;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CandidateSetTest {
+
+    private static final int MAX_ENTRIES = 10;
+    private static final int POSTING_LISTS = 3;
+
+    private final List<Point> objects = Arrays.asList(new Point(0.0F, 0.0F), new Point(1.0F, 1.0F));
+
+    /**
+     * Object 0 is found in all three posting lists with footrule increments 4, 4 and 0, giving a score of 8.
+     * Object 1 is found in the first two with increments 0 and 0, and is penalised for the third, giving 10.
+     * Accumulating the third sighting of object 0 from its first score rather than its second gives 14,
+     * which would wrongly rank object 1 first.
+     */
+    @Test
+    public void thirdSightingAccumulatesOntoSecond() {
+
+        assertEquals(Arrays.asList(objects.get(0), objects.get(1)), values(query(2)));
+        assertEquals(Arrays.asList(objects.get(0)), values(query(1)));
+    }
+
+    private CandidateSet<Point> query(int k) {
+
+        CandidateSet<Point> candidates = new CandidateSet<>(new Point(0.0F, 0.0F), new EuclideanDistance(), objects, MAX_ENTRIES, k);
+
+        put(candidates, 0, 4, 0);
+        put(candidates, 1, 0, 0);
+
+        put(candidates, 0, 5, 1);
+        put(candidates, 1, 1, 1);
+
+        put(candidates, 0, 2, 2);
+
+        return candidates;
+    }
+
+    private static void put(CandidateSet<Point> candidates, int id, int score, int position) {
+
+        candidates.put(id, score, position, POSTING_LISTS, position + 1);
+    }
+
+    private static List<Point> values(CandidateSet<Point> candidates) {
+
+        List<DataDistance<Point>> distances = candidates.getDataDistances();
+        Point[] result = new Point[distances.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = distances.get(i).value;
+        }
+        return Arrays.asList(result);
+    }
+}
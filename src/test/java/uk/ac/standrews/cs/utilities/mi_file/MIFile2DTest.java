@@ -18,14 +18,22 @@ package uk.ac.standrews.cs.utilities.mi_file;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import uk.ac.standrews.cs.utilities.Codec;
 import uk.ac.standrews.cs.utilities.measures.coreConcepts.DataDistance;
 import uk.ac.standrews.cs.utilities.m_tree.experiments.euclidean.EuclideanDistance;
 import uk.ac.standrews.cs.utilities.m_tree.experiments.euclidean.Point;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -34,12 +42,13 @@ public class MIFile2DTest {
 
     private MIFile<Point> file;
     private EuclideanDistance distance;
+    private Set<Point> ros;
 
     @BeforeEach
     public void setUp() throws Exception {
 
         distance = new EuclideanDistance();
-        Set<Point>  ros = createReferenceObjects();
+        ros = createReferenceObjects();
         file = new MIFile<>(distance,ros,10,10); // TODO investigate these numbers!
     }
 
@@ -183,6 +192,11 @@ public class MIFile2DTest {
      */
     private int addSquares() throws Exception {
 
+        return addSquares(file);
+    }
+
+    private static int addSquares(MIFile<Point> file) throws Exception {
+
         int count = 0;
 
         for (double step = 1.0F; step < 50.0F; step++) {
@@ -239,6 +253,205 @@ public class MIFile2DTest {
         }
     }
 
+    /**
+     * test that bulk loading gives the same index as adding points one at a time
+     */
+    @Test
+    public void addAllMatchesAdd() throws Exception {
+
+        List<Point> points = new ArrayList<>();
+        for (double step = 1.0F; step < 50.0F; step++) {
+            points.add(new Point(+step, +step / 2));
+            points.add(new Point(-step / 3, +step));
+        }
+
+        for (Point p : points) {
+            file.add(p);
+        }
+
+        MIFile<Point> bulk = new MIFile<>(distance, ros, 10, 10);
+        bulk.addAll(points.subList(0, 40));          // two batches so that the second is merged into existing lists
+        bulk.addAll(points.subList(40, points.size()));
+
+        assertEquals(file.size(), bulk.size());
+
+        for (Point query : new Point[]{new Point(0.0F, 0.0F), new Point(20.0F, 7.0F), new Point(-5.0F, 30.0F)}) {
+            assertEquals(file.mapValues(file.nearestN(query, 10)), bulk.mapValues(bulk.nearestN(query, 10)));
+        }
+    }
+
+    /**
+     * test that computing reference object distances in parallel does not change the results
+     */
+    @Test
+    public void parallelReferenceDistances() throws Exception {
+
+        addSquares();
+
+        MIFile<Point> parallel = new MIFile<>(distance, ros, 10, 10);
+        parallel.setParallelReferenceDistances(true);
+        addSquares(parallel);
+
+        for (Point query : new Point[]{new Point(0.0F, 0.0F), new Point(20.0F, 7.0F), new Point(-5.0F, 30.0F)}) {
+            assertEquals(file.mapValues(file.nearestN(query, 10)), parallel.mapValues(parallel.nearestN(query, 10)));
+        }
+    }
+
+    /**
+     * test that concurrent queries, the first of which compact the posting lists after insertion, agree with sequential ones
+     */
+    @Test
+    public void concurrentQueriesAfterInsertion() throws Exception {
+
+        Point[] queries = new Point[40];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = new Point(i * 3.0F - 60.0F, 50.0F - i * 2.5F);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        for (int round = 0; round < 10; round++) {
+
+            MIFile<Point> expected_file = new MIFile<>(distance, ros, 10, 10);
+            MIFile<Point> concurrent_file = new MIFile<>(distance, ros, 10, 10);
+            for (double step = 1.0F; step < 60.0F; step++) {
+                Point p = new Point(+step * (round + 1) % 97, -step / 2);
+                expected_file.add(p);
+                concurrent_file.add(p);
+            }
+
+            List<List<Point>> expected = new ArrayList<>();
+            for (Point query : queries) {
+                expected.add(expected_file.mapValues(expected_file.nearestN(query, 10)));
+            }
+
+            List<Future<List<Point>>> found = new ArrayList<>();
+            for (Point query : queries) {
+                found.add(executor.submit(() -> concurrent_file.mapValues(concurrent_file.nearestN(query, 10))));
+            }
+            for (int i = 0; i < queries.length; i++) {
+                assertEquals(expected.get(i), found.get(i).get());
+            }
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * test that the k smallest distances are selected in order, with ties broken by index
+     */
+    @Test
+    public void selectK() {
+
+        double[] distances = {5.0, 1.0, 3.0, 1.0, 4.0, 0.5, 3.0, 9.0};
+
+        assertArrayEquals(new int[]{5, 1, 3, 2, 6}, NearestReferenceObjects.selectK(distances, 5));
+        assertArrayEquals(new int[]{5, 1, 3, 2, 6, 4, 0, 7}, NearestReferenceObjects.selectK(distances, distances.length));
+        assertArrayEquals(new int[0], NearestReferenceObjects.selectK(distances, 0));
+    }
+
+    /**
+     * test that a saved and reopened file gives the same results, and can still be added to
+     */
+    @Test
+    public void saveAndOpen() throws Exception {
+
+        int count = addSquares();
+
+        Path path = Files.createTempFile("mi_file_test", ".mif");
+        try {
+            file.save(path, POINT_CODEC);
+            MIFile<Point> opened = MIFile.open(path, distance, POINT_CODEC);
+
+            assertEquals(count, opened.size());
+
+            for (Point query : new Point[]{new Point(0.0F, 0.0F), new Point(20.0F, 7.0F), new Point(-5.0F, 30.0F)}) {
+                assertEquals(file.mapValues(file.nearestN(query, 10)), opened.mapValues(opened.nearestN(query, 10)));
+            }
+
+            Point extra = new Point(1000.0F, 1000.0F);
+            opened.add(extra);
+            assertEquals(count + 1, opened.size());
+            assertTrue(opened.contains(extra));
+            assertTrue(opened.contains(new Point(+1.0F, +1.0F)));
+
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * test that an opened file can be saved back to its own path, which it is still mapped from
+     */
+    @Test
+    public void saveOverOpenedFile() throws Exception {
+
+        int count = addSquares();
+        Point[] queries = {new Point(0.0F, 0.0F), new Point(20.0F, 7.0F), new Point(-5.0F, 30.0F)};
+
+        Path path = Files.createTempFile("mi_file_test", ".mif");
+        try {
+            file.save(path, POINT_CODEC);
+            MIFile<Point> opened = MIFile.open(path, distance, POINT_CODEC);
+
+            Point extra = new Point(1000.0F, 1000.0F);
+            opened.add(extra);
+            opened.save(path, POINT_CODEC);
+
+            assertEquals(count + 1, opened.size());
+            assertTrue(opened.contains(new Point(+1.0F, +1.0F)));
+
+            MIFile<Point> reopened = MIFile.open(path, distance, POINT_CODEC);
+
+            assertEquals(count + 1, reopened.size());
+            assertTrue(reopened.contains(extra));
+            for (Point query : queries) {
+                assertEquals(opened.mapValues(opened.nearestN(query, 10)), reopened.mapValues(reopened.nearestN(query, 10)));
+            }
+
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void postingsMappedInChunks() throws Exception {
+
+        addSquares();
+        Point[] queries = {new Point(0.0F, 0.0F), new Point(20.0F, 7.0F), new Point(-5.0F, 30.0F)};
+
+        Path path = Files.createTempFile("mi_file_test", ".mif");
+        try {
+            file.save(path, POINT_CODEC);
+
+            // chunks of a few lists each, and a single chunk holding them all.
+            for (long max_chunk_size : new long[]{2000, Integer.MAX_VALUE}) {
+
+                MIFile<Point> opened = MIFileStorage.open(path, distance, POINT_CODEC, max_chunk_size);
+                for (Point query : queries) {
+                    assertEquals(file.mapValues(file.nearestN(query, 10)), opened.mapValues(opened.nearestN(query, 10)));
+                }
+            }
+            assertThrows(IOException.class, () -> MIFileStorage.open(path, distance, POINT_CODEC, 5));
+
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static final Codec<Point> POINT_CODEC = new Codec<Point>() {
+
+        @Override
+        public byte[] encode(Point p) {
+            return ByteBuffer.allocate(16).putDouble(p.x).putDouble(p.y).array();
+        }
+
+        @Override
+        public Point decode(byte[] bytes) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            return new Point(buffer.getDouble(), buffer.getDouble());
+        }
+    };
+
     /**
 //     * test points added to the file
 //     * such that some will nest
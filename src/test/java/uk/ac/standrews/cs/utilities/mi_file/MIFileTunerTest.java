@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.mi_file;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.standrews.cs.utilities.m_tree.experiments.euclidean.EuclideanDistance;
+import uk.ac.standrews.cs.utilities.m_tree.experiments.euclidean.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MIFileTunerTest {
+
+    private static final long SEED = 12345;
+
+    /**
+     * test that every valid combination is evaluated, and that the best recall is among the Pareto-optimal results
+     */
+    @Test
+    public void tune() throws Exception {
+
+        EuclideanDistance distance = new EuclideanDistance();
+        Random random = new Random(SEED);
+
+        List<Point> data = new ArrayList<>();
+        for (int index = 0; index < 500; index++) {
+            data.add(new Point(random.nextDouble() * 100.0, random.nextDouble() * 100.0));
+        }
+        List<Point> queries = new ArrayList<>();
+        for (int index = 0; index < 10; index++) {
+            queries.add(new Point(random.nextDouble() * 100.0, random.nextDouble() * 100.0));
+        }
+        Set<Point> reference_objects = new ReferenceObjectSelector<>(distance, SEED).random(data, 20);
+
+        MIFileTuner<Point> tuner = new MIFileTuner<>(distance, reference_objects, data, queries, 5);
+        List<MIFileTuner.Result> results = tuner.tune(new int[]{5, 10, 20}, new int[]{5, 10, 30}, new int[]{3, 20});
+
+        assertEquals(2 * 2 * 2, results.size());    // ki of 20 and ks of 30 exceed the number of reference objects.
+
+        MIFileTuner.Result best = results.get(0);
+        for (MIFileTuner.Result result : results) {
+            assertTrue(result.recall >= 0.0 && result.recall <= 1.0);
+            assertTrue(result.structure.ks <= reference_objects.size());
+            if (result.recall > best.recall) {
+                best = result;
+            }
+        }
+        assertTrue(best.pareto_optimal || hasEqualRecallOptimal(results, best.recall));
+
+        String report = MIFileTuner.report(results);
+        assertEquals(results.size() + 1, report.split("\n").length);
+    }
+
+    private static boolean hasEqualRecallOptimal(List<MIFileTuner.Result> results, double recall) {
+
+        for (MIFileTuner.Result result : results) {
+            if (result.pareto_optimal && result.recall == recall) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.mi_file;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.ac.standrews.cs.utilities.measures.coreConcepts.Measure;
+import uk.ac.standrews.cs.utilities.measures.implementation.CartesianPoint;
+import uk.ac.standrews.cs.utilities.richard.dataPoints.cartesian.Euclidean;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NearestReferenceObjectsTest {
+
+    private static final int DIMENSIONS = 7;    // not a multiple of the kernel's unrolling, to exercise the tail.
+
+    private List<CartesianPoint> reference_objects;
+    private List<CartesianPoint> queries;
+    private AtomicInteger euclidean_calls;
+    private Euclidean<CartesianPoint> euclidean;
+    private Measure<CartesianPoint> generic;
+
+    @BeforeEach
+    public void setUp() {
+
+        Random random = new Random(12345);
+        reference_objects = new ArrayList<>();
+        for (int index = 0; index < 100; index++) {
+            reference_objects.add(randomPoint(random));
+        }
+        queries = new ArrayList<>();
+        for (int index = 0; index < 50; index++) {
+            queries.add(randomPoint(random));
+        }
+        queries.addAll(reference_objects.subList(0, 5));
+
+        euclidean_calls = new AtomicInteger();
+
+        euclidean = new Euclidean<CartesianPoint>() {
+            @Override
+            public double calculateDistance(CartesianPoint x, CartesianPoint y) {
+                euclidean_calls.incrementAndGet();
+                return super.calculateDistance(x, y);
+            }
+        };
+
+        // the same distances, through a measure that is not recognised as Euclidean.
+        generic = new Measure<CartesianPoint>() {
+
+            private final Euclidean<CartesianPoint> delegate = new Euclidean<>();
+
+            @Override
+            public String getMeasureName() {
+                return "generic euc";
+            }
+
+            @Override
+            public boolean maxDistanceIsOne() {
+                return false;
+            }
+
+            @Override
+            protected double calculateDistance(CartesianPoint x, CartesianPoint y) {
+                return delegate.distance(x, y);
+            }
+        };
+    }
+
+    /**
+     * test that the packed Euclidean path finds the same reference objects as the generic path, without calling the measure
+     */
+    @Test
+    public void packedMatchesGeneric() {
+
+        for (boolean parallel : new boolean[]{false, true}) {
+
+            NearestReferenceObjects<CartesianPoint> packed = new NearestReferenceObjects<>(reference_objects, euclidean);
+            NearestReferenceObjects<CartesianPoint> unpacked = new NearestReferenceObjects<>(reference_objects, generic);
+            packed.setParallel(parallel);
+            unpacked.setParallel(parallel);
+
+            for (CartesianPoint query : queries) {
+                for (int k : new int[]{1, 10, reference_objects.size()}) {
+                    assertArrayEquals(unpacked.nearest(query, k), packed.nearest(query, k));
+                }
+            }
+        }
+        assertEquals(0, euclidean_calls.get());
+    }
+
+    /**
+     * test that the packed distances are those of the measure, by checking that the nearest are in order of the measure's distances
+     */
+    @Test
+    public void packedDistancesMatchMeasure() {
+
+        NearestReferenceObjects<CartesianPoint> packed = new NearestReferenceObjects<>(reference_objects, euclidean);
+
+        for (CartesianPoint query : queries) {
+
+            int[] nearest = packed.nearest(query, reference_objects.size());
+            double[] distances = new double[reference_objects.size()];
+            for (int index = 0; index < distances.length; index++) {
+                distances[index] = generic.distance(query, reference_objects.get(index));
+            }
+            assertArrayEquals(NearestReferenceObjects.selectK(distances, distances.length), nearest);
+        }
+    }
+
+    /**
+     * test that a query of the wrong dimension is passed to the measure, which rejects it
+     */
+    @Test
+    public void wrongDimensionQuery() {
+
+        CartesianPoint query = new CartesianPoint(new double[DIMENSIONS + 1]);
+
+        for (boolean parallel : new boolean[]{false, true}) {
+
+            NearestReferenceObjects<CartesianPoint> packed = new NearestReferenceObjects<>(reference_objects, euclidean);
+            packed.setParallel(parallel);
+
+            assertThrows(IllegalArgumentException.class, () -> packed.nearest(query, 10));
+        }
+        assertTrue(euclidean_calls.get() > 0);
+    }
+
+    /**
+     * test that reference objects of mixed dimensions are not packed
+     */
+    @Test
+    public void mixedDimensionReferenceObjects() {
+
+        List<CartesianPoint> mixed = new ArrayList<>(reference_objects);
+        mixed.add(new CartesianPoint(new double[DIMENSIONS + 1]));
+
+        NearestReferenceObjects<CartesianPoint> nearest = new NearestReferenceObjects<>(mixed, euclidean);
+
+        assertThrows(IllegalArgumentException.class, () -> nearest.nearest(queries.get(0), 10));
+        assertTrue(euclidean_calls.get() > 0);
+    }
+
+    private static CartesianPoint randomPoint(Random random) {
+
+        double[] point = new double[DIMENSIONS];
+        for (int index = 0; index < point.length; index++) {
+            point[index] = random.nextInt(5);    // few distinct values, so that there are ties in distance.
+        }
+        return new CartesianPoint(point);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.mi_file;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.ac.standrews.cs.utilities.m_tree.experiments.euclidean.EuclideanDistance;
+import uk.ac.standrews.cs.utilities.m_tree.experiments.euclidean.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReferenceObjectSelectorTest {
+
+    private static final long SEED = 12345;
+
+    private EuclideanDistance distance;
+    private List<Point> data;
+
+    @BeforeEach
+    public void setUp() {
+
+        distance = new EuclideanDistance();
+        data = new ArrayList<>();
+        Random random = new Random(SEED);
+        for (int index = 0; index < 500; index++) {
+            data.add(new Point(random.nextDouble() * 100.0, random.nextDouble() * 100.0));
+        }
+    }
+
+    /**
+     * test that each strategy chooses the requested number of objects from the data, deterministically for a seed
+     */
+    @Test
+    public void strategiesChooseFromData() {
+
+        for (Function<ReferenceObjectSelector<Point>, Set<Point>> strategy : strategies(data, 20)) {
+
+            Set<Point> chosen = strategy.apply(new ReferenceObjectSelector<>(distance, SEED));
+
+            assertEquals(20, chosen.size());
+            assertTrue(data.containsAll(chosen));
+            assertEquals(chosen, strategy.apply(new ReferenceObjectSelector<>(distance, SEED)));
+        }
+    }
+
+    /**
+     * test that farthest first chooses the extreme points of a line before the middle
+     */
+    @Test
+    public void farthestFirstSpreadsOut() {
+
+        List<Point> line = new ArrayList<>();
+        for (int x = 0; x <= 10; x++) {
+            line.add(new Point(x, 0.0));
+        }
+
+        Set<Point> chosen = new ReferenceObjectSelector<>(distance, SEED).farthestFirst(line, 3);
+
+        assertTrue(chosen.contains(line.get(0)));
+        assertTrue(chosen.contains(line.get(10)));
+    }
+
+    /**
+     * test that duplicates in the data are not chosen twice, and that each strategy fails when there are too few distinct objects
+     */
+    @Test
+    public void duplicateData() {
+
+        List<Point> duplicated = new ArrayList<>();
+        for (int copy = 0; copy < 10; copy++) {
+            duplicated.addAll(data.subList(0, 3));
+        }
+
+        for (Function<ReferenceObjectSelector<Point>, Set<Point>> strategy : strategies(duplicated, 3)) {
+
+            Set<Point> chosen = strategy.apply(new ReferenceObjectSelector<>(distance, SEED));
+            assertEquals(3, chosen.size());
+            assertTrue(chosen.containsAll(data.subList(0, 3)));
+        }
+
+        for (Function<ReferenceObjectSelector<Point>, Set<Point>> strategy : strategies(duplicated, 4)) {
+            assertThrows(IllegalArgumentException.class, () -> strategy.apply(new ReferenceObjectSelector<>(distance, SEED)));
+        }
+    }
+
+    @Test
+    public void tooFewObjects() {
+
+        for (Function<ReferenceObjectSelector<Point>, Set<Point>> strategy : strategies(data.subList(0, 3), 4)) {
+            assertThrows(IllegalArgumentException.class, () -> strategy.apply(new ReferenceObjectSelector<>(distance, SEED)));
+        }
+    }
+
+    private static List<Function<ReferenceObjectSelector<Point>, Set<Point>>> strategies(List<Point> data, int n) {
+
+        List<Function<ReferenceObjectSelector<Point>, Set<Point>>> strategies = new ArrayList<>();
+        strategies.add(selector -> selector.random(data, n));
+        strategies.add(selector -> selector.farthestFirst(data, n));
+        strategies.add(selector -> selector.kMedoids(data, n, 5, 10));
+        strategies.add(selector -> selector.incremental(data, n, 5, 50));
+        return strategies;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2021 Systems Research Group, University of St Andrews:
+ * <https://github.com/stacs-srg>
+ *
+ * This file is part of the module utilities.
+ *
+ * utilities is free software: you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * utilities is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with utilities. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package uk.ac.standrews.cs.utilities.richard.dataPoints.cartesian;
+
+import org.junit.jupiter.api.Test;
+import uk.ac.standrews.cs.utilities.measures.coreConcepts.Measure;
+import uk.ac.standrews.cs.utilities.measures.implementation.CartesianPoint;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CartesianDistancesTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void measuresMatchScalarLoops() {
+
+        Random random = new Random(1);
+
+        for (int dimensions = 0; dimensions < 70; dimensions++) {
+
+            double[] x = randomPoint(random, dimensions);
+            double[] y = randomPoint(random, dimensions);
+            CartesianPoint px = new CartesianPoint(x);
+            CartesianPoint py = new CartesianPoint(y);
+
+            double squares = 0.0, absolutes = 0.0, max = 0.0, dot = 0.0;
+            for (int i = 0; i < dimensions; i++) {
+                squares += (x[i] - y[i]) * (x[i] - y[i]);
+                absolutes += Math.abs(x[i] - y[i]);
+                max = Math.max(max, Math.abs(x[i] - y[i]));
+                dot += x[i] * y[i];
+            }
+
+            assertEquals(Math.sqrt(squares), new Euclidean<>().distance(px, py), DELTA);
+            assertEquals(squares, new SquaredEuclidean<>().distance(px, py), DELTA);
+            assertEquals(absolutes, new Manhattan<>().distance(px, py), DELTA);
+            assertEquals(max, new Chebyshev<>().distance(px, py), DELTA);
+
+            if (dimensions > 0) {
+                double cosine = dot / (px.getMagnitude() * py.getMagnitude());
+                assertEquals(Math.acos(cosine) / Math.PI, new Cosine<>().distance(px, py), DELTA);
+            }
+        }
+    }
+
+    @Test
+    public void abandonedOnlyAboveBound() {
+
+        Random random = new Random(2);
+
+        for (int dimensions = 1; dimensions < 200; dimensions += 7) {
+
+            double[] x = randomPoint(random, dimensions);
+            double[] y = randomPoint(random, dimensions);
+            double full = CartesianDistances.manhattan(x, y, 0, dimensions, Double.POSITIVE_INFINITY);
+
+            for (double bound : new double[]{0.0, full / 4, full / 2, full, full * 2}) {
+
+                double partial = CartesianDistances.manhattan(x, y, 0, dimensions, bound);
+                if (full <= bound) {
+                    assertEquals(full, partial, DELTA);
+                } else {
+                    assertTrue(partial > bound && partial <= full + DELTA);
+                }
+
+                double squares = CartesianDistances.squaredEuclidean(x, y, 0, dimensions, Double.POSITIVE_INFINITY);
+                double partial_squares = CartesianDistances.squaredEuclidean(x, y, 0, dimensions, bound);
+                assertTrue(squares <= bound ? partial_squares == squares : partial_squares > bound);
+            }
+        }
+    }
+
+    @Test
+    public void boundedMeasuresExactWithinBound() {
+
+        Random random = new Random(3);
+
+        for (int dimensions = 1; dimensions < 100; dimensions += 9) {
+
+            CartesianPoint x = new CartesianPoint(randomPoint(random, dimensions));
+            CartesianPoint y = new CartesianPoint(randomPoint(random, dimensions));
+
+            for (Measure<CartesianPoint> measure : Arrays.<Measure<CartesianPoint>>asList(new Euclidean<>(), new SquaredEuclidean<>(), new Manhattan<>(), new Chebyshev<>(), new Cosine<>())) {
+
+                double distance = measure.distance(x, y);
+
+                for (double bound : new double[]{0.0, distance / 2, distance, distance * 2}) {
+
+                    double bounded = measure.distanceBounded(x, y, bound);
+                    if (distance <= bound) {
+                        assertEquals(distance, bounded, 0.0);
+                    } else {
+                        assertTrue(bounded > bound);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cosineWithinUnitRange() {
+
+        CartesianPoint x = new CartesianPoint(new double[]{1, -2, 3});
+        CartesianPoint opposite = new CartesianPoint(new double[]{-2, 4, -6});
+        CartesianPoint orthogonal = new CartesianPoint(new double[]{2, 1, 0});
+        CartesianPoint origin = new CartesianPoint(new double[]{0, 0, 0});
+
+        assertEquals(1.0, new Cosine<>().distance(x, opposite), DELTA);
+        assertEquals(0.5, new Cosine<>().distance(x, orthogonal), DELTA);
+        assertEquals(0.0, new Cosine<>().distance(x, x), DELTA);
+        assertEquals(0.5, new Cosine<>().distance(x, origin), 0.0);
+        assertEquals(0.5, new Cosine<>().distance(origin, opposite), 0.0);
+        assertEquals(0.0, new Cosine<>().distance(origin, origin), 0.0);
+    }
+
+    @Test
+    public void differentDimensionsRejected() {
+
+        assertThrows(IllegalArgumentException.class, () -> new Euclidean<>().distance(new CartesianPoint(new double[]{1, 2}), new CartesianPoint(new double[]{1})));
+    }
+
+    private static double[] randomPoint(Random random, int dimensions) {
+
+        double[] point = new double[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            point[i] = random.nextDouble();
+        }
+        return point;
+    }
+}